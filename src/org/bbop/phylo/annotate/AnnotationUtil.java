@@ -1,5 +1,6 @@
 package org.bbop.phylo.annotate;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -8,9 +9,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.bbop.phylo.config.TouchupConfig;
 import org.bbop.phylo.gaf.parser.GafDocument;
+import org.bbop.phylo.io.golr.AbstractRetrieveGolr;
+import org.bbop.phylo.io.golr.GolrAnnotationCache;
+import org.bbop.phylo.io.golr.GolrBatchFetcher;
 import org.bbop.phylo.io.golr.RetrieveGolrAnnotations;
 import org.bbop.phylo.io.golr.RetrieveGolrAnnotations.GolrAnnotationDocument;
 import org.bbop.phylo.io.panther.IDmap;
@@ -19,6 +25,7 @@ import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Family;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.bbop.phylo.model.Tree;
+import org.bbop.phylo.tracking.FamilyMetrics;
 import org.bbop.phylo.tracking.LogAlert;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.OWLutil;
@@ -100,9 +107,21 @@ public class AnnotationUtil {
 
 	private static final org.apache.log4j.Logger log = org.apache.log4j.Logger.getLogger("AnnotationUtil.class");
 
+	/* the index version of each GOlr server asked during the run under way, see getGolrSnapshot */
+	private static final Map<String, String> golr_snapshots = new ConcurrentHashMap<String, String>();
+
 	public static boolean loadExperimental(Family family) {
 		TouchupConfig config = TouchupConfig.inst();
 
+		if (TouchupConfig.LOCAL_EVIDENCE.equals(config.evidence_provider)) {
+			try {
+				collectLocalAnnotations(family);
+				return true;
+			} catch (IOException e) {
+				log.error("Unable to use the local evidence: " + e.getMessage());
+				return false;
+			}
+		}
 		boolean proceed = loadExperimental(family, config.GOlrURL, true);
 		if (!proceed) {
 			config.GOlrURL = config.GOlrURL.equals(Constant.PUB_GOLR) ? Constant.DEV_GOLR : Constant.PUB_GOLR;
@@ -125,19 +144,82 @@ public class AnnotationUtil {
 		return proceed;
 	}
 
+	/**
+	 * @return an identifier for the current snapshot of experimental annotations, 
+	 * or null if the GOlr server can't say which snapshot it is serving
+	 */
+	public static String getEvidenceSnapshot() {
+		if (TouchupConfig.LOCAL_EVIDENCE.equals(TouchupConfig.inst().evidence_provider)) {
+			return LocalEvidence.getSnapshot();
+		}
+		return getGolrSnapshot(golrURL());
+	}
+
+	/**
+	 * Forget the GOlr index versions, so that the next run asks for them again
+	 */
+	public static void newRun() {
+		golr_snapshots.clear();
+	}
+
+	private static String golrURL() {
+		String GOlrURL = TouchupConfig.inst().GOlrURL;
+		return GOlrURL == null || GOlrURL.isEmpty() ? Constant.DEV_GOLR : GOlrURL;
+	}
+
+	/*
+	 * Asked for once per server and run rather than for every family.
+	 * The server is part of the snapshot, as the public and the development server 
+	 * don't serve the same documents even when their index versions happen to agree,
+	 * so after falling back to the other server its documents are never filed under the first one.
+	 * If GOlr can't say, the next family asks again.
+	 */
+	private static String getGolrSnapshot(String GOlrURL) {
+		String snapshot = golr_snapshots.get(GOlrURL);
+		if (snapshot == null) {
+			synchronized (AnnotationUtil.class) {
+				snapshot = golr_snapshots.get(GOlrURL);
+				if (snapshot == null) {
+					snapshot = askGolrSnapshot(GOlrURL);
+					if (snapshot != null) {
+						golr_snapshots.put(GOlrURL, snapshot);
+					}
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	private static String askGolrSnapshot(String GOlrURL) {
+		try {
+			RetrieveGolrAnnotations retriever = new RetrieveGolrAnnotations(GOlrURL, 3, false);
+			return "golr#" + GOlrURL + "#" + retriever.getIndexVersion();
+		} catch (IOException e) {
+			log.error("Unable to determine the index version of " + GOlrURL + ": " + e.getMessage());
+			return null;
+		}
+	}
+
 	public static void collectExpAnnotationsBatched(Family family) throws Exception {
 		Tree tree = family.getTree();
 		List<Bioentity> leaves = tree.getLeaves();
 		if (TouchupConfig.inst().GOlrURL.isEmpty()) {
 			TouchupConfig.inst().GOlrURL = Constant.DEV_GOLR;
 		}
-		log.info("Retrieving experimental annotations from: " + TouchupConfig.inst().GOlrURL);
-		RetrieveGolrAnnotations retriever = new RetrieveGolrAnnotations(TouchupConfig.inst().GOlrURL, 3, true) {
+		/* another family may fall back to the other server meanwhile, the cache has to go with the server actually asked */
+		final String GOlrURL = TouchupConfig.inst().GOlrURL;
+		log.info("Retrieving experimental annotations from: " + GOlrURL);
+		RetrieveGolrAnnotations retriever = new RetrieveGolrAnnotations(GOlrURL, 3, true) {
 			@Override
 			protected void logRequest(URI uri) {
 				super.logRequest(uri);
 			}
 
+			@Override
+			protected void logResponse(URI uri, long start_nanos) {
+				FamilyMetrics.inst().addRequest(start_nanos);
+			}
+
 			@Override
 			protected void logRequestError(URI uri, IOException exception) {
 				log.error("Encountered " + uri, exception);
@@ -153,70 +235,187 @@ public class AnnotationUtil {
 
 		List<String> gene_names = new ArrayList<>();
 		Map<String, Bioentity> id2gene = new HashMap<>();
-		int increment = 100;
-		for (int i = 0; i < leaves.size(); i += increment) {
-			gene_names.clear();
-			id2gene.clear();
-			int limit = Math.min(leaves.size(), i + increment);
-			for (int position = i; position < limit; position++) {
-				Bioentity leaf = leaves.get(position);
-				/*
-				 * Another nasty hack to use UniprotKB rather than ENSG
-				 * Or, for that matter, 
-				 * any case where PANTHER has used the name of DB that doesn't actually submit to GO
-				 */
-				String key = leaf.getId();
-				if (ParsingHack.useUniProtID(leaf.getDb())) {
-					key = leaf.getSeqDb() + ':' + leaf.getSeqId();
+		mapLeaves(leaves, gene_names, id2gene);
+
+		/*
+		 * Only ask GOlr about the genes that haven't been cached lately.
+		 * The batches are fetched side by side, but they come back in the order of the leaves
+		 * so the leaves are updated in the same order no matter which request finished first
+		 */
+		GolrAnnotationCache cache = openCache(GOlrURL);
+		Map<String, List<GolrAnnotationDocument>> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String gene_name : gene_names) {
+			List<GolrAnnotationDocument> golrDocuments = cache != null ? cache.get(GolrAnnotationCache.BIOENTITY, gene_name) : null;
+			if (golrDocuments != null) {
+				found.put(gene_name, golrDocuments);
+			} else {
+				missing.add(gene_name);
+			}
+		}
+		if (cache != null) {
+			log.info((gene_names.size() - missing.size()) + " of " + gene_names.size() + " genes found in the GOlr cache");
+		}
+		AbstractRetrieveGolr.setMaxRequests(TouchupConfig.inst().golr_fetchers);
+		GolrBatchFetcher fetcher = new GolrBatchFetcher(retriever, TouchupConfig.inst().golr_fetchers, true);
+		try {
+			Map<String, List<GolrAnnotationDocument>> fetched = fetcher.fetch(missing);
+			if (cache != null) {
+				for (Map.Entry<String, List<GolrAnnotationDocument>> entry : fetched.entrySet()) {
+					cache.put(GolrAnnotationCache.BIOENTITY, entry.getKey(), entry.getValue());
 				}
-				gene_names.add(key);
-				id2gene.put(key, leaf);
-				/* 
-				 * while we're at it, include the sequence ID as a synonym, 
-				 * nothing to do with the primary goal, merely a convenient time
-				 */
-				leaf.addSynonym(leaf.getSeqDb() + ':' + leaf.getSeqId());
 			}
-			askGolr(retriever, gene_names, id2gene);
+			found.putAll(fetched);
+		} catch (IOException e) {
+			String message = "Problem collecting experimental annotations because, \"" + e.getMessage() + "\"";
+			log.info(message);
+			throw new IOException(message, e);
+		}
+		for (String gene_name : gene_names) {
+			askGolr(retriever, found.get(gene_name), id2gene, false);
+		}
+
+		/*
+		 * Continue searching for those genes for which a corresponding gene 
+		 * in GoLR could not be found
+		 */
+		for (String gene_name : gene_names) {
+			Bioentity leaf = id2gene.get(gene_name);
+			if (leaf == null) {
+				continue;
+			}
+			List<GolrAnnotationDocument> golrDocuments;
+			golrDocuments = askGolrForSynonym(retriever, cache, leaf.getDb(), leaf.getDBID());
+
+			if (golrDocuments.size() == 0) {
+				String key = leaf.getSeqDb() + ':' + leaf.getSeqId();
+				golrDocuments = askGolrForGene(retriever, cache, key);
+			}
+
+			if (golrDocuments.size() > 0) {
+				askGolrAgain(retriever, leaf, golrDocuments, false);
+			}
+		}
+	}
+
+	/*
+	 * The same matching of the leaves to the genes as with GOlr, only the annotations come from the local files
+	 * and have already been through isExpAnnotation
+	 */
+	private static void collectLocalAnnotations(Family family) throws IOException {
+		LocalEvidence evidence = LocalEvidence.inst();
+		RetrieveGolrAnnotations converter = evidence.getConverter();
+		List<String> gene_names = new ArrayList<>();
+		Map<String, Bioentity> id2gene = new HashMap<>();
+		mapLeaves(family.getTree().getLeaves(), gene_names, id2gene);
+		for (String gene_name : gene_names) {
+			askGolr(converter, evidence.getForGene(gene_name), id2gene, true);
+		}
+		for (String gene_name : gene_names) {
+			Bioentity leaf = id2gene.get(gene_name);
+			if (leaf == null) {
+				continue;
+			}
+			List<GolrAnnotationDocument> golrDocuments = evidence.getForSynonym(leaf.getDb(), leaf.getDBID());
+			if (golrDocuments.size() == 0) {
+				golrDocuments = evidence.getForGene(leaf.getSeqDb() + ':' + leaf.getSeqId());
+			}
+			if (golrDocuments.size() > 0) {
+				askGolrAgain(converter, leaf, golrDocuments, true);
+			}
+		}
+	}
 
+	private static void mapLeaves(List<Bioentity> leaves, List<String> gene_names, Map<String, Bioentity> id2gene) {
+		for (Bioentity leaf : leaves) {
 			/*
-			 * Continue searching for those genes for which a corresponding gene 
-			 * in GoLR could not be found
+			 * Another nasty hack to use UniprotKB rather than ENSG
+			 * Or, for that matter, 
+			 * any case where PANTHER has used the name of DB that doesn't actually submit to GO
 			 */
-			for (String gene_name : id2gene.keySet()) {
-				Bioentity leaf = id2gene.get(gene_name);
-				List<GolrAnnotationDocument> golrDocuments;
-				golrDocuments = retriever.getGolrAnnotationsForSynonym(leaf.getDb(), leaf.getDBID());
-
-				if (golrDocuments.size() == 0) {
-					String key = leaf.getSeqDb() + ':' + leaf.getSeqId();
-					golrDocuments = retriever.getGolrAnnotationsForGene(key);
-				}
+			String key = leaf.getId();
+			if (ParsingHack.useUniProtID(leaf.getDb())) {
+				key = leaf.getSeqDb() + ':' + leaf.getSeqId();
+			}
+			if (id2gene.put(key, leaf) == null) {
+				gene_names.add(key);
+			}
+			/* 
+			 * while we're at it, include the sequence ID as a synonym, 
+			 * nothing to do with the primary goal, merely a convenient time
+			 */
+			leaf.addSynonym(leaf.getSeqDb() + ':' + leaf.getSeqId());
+		}
+	}
 
-				if (golrDocuments.size() > 0) {
-					GafDocument annots = retriever.convert(golrDocuments);
-					Collection<Bioentity> bioentities = annots.getBioentities();
-					Bioentity golr_gene = null;
-					if (bioentities.size() != 1) {
-						for (Iterator<Bioentity> iter = bioentities.iterator(); iter.hasNext() && golr_gene == null;) {
-							Bioentity gene = iter.next();
-							if (gene.getDb().equals("AspGD") && gene.getLocalId().startsWith("ASP")) {
-								golr_gene = gene;
-							}
-						}
-						log.info(bioentities.size() + " annotations returned for " + leaf.getId());
-					} else {
-						golr_gene = bioentities.iterator().next();
-					}
-					processGolrAnnotations(leaf, golr_gene, annots.getGeneAnnotations());
+	/*
+	 * For a leaf that wasn't found by its id, but was by its synonym or sequence id
+	 */
+	private static void askGolrAgain(RetrieveGolrAnnotations retriever, Bioentity leaf, List<GolrAnnotationDocument> golrDocuments, boolean filtered) throws IOException {
+		GafDocument annots = retriever.convert(golrDocuments);
+		Collection<Bioentity> bioentities = annots.getBioentities();
+		Bioentity golr_gene = null;
+		if (bioentities.size() != 1) {
+			for (Iterator<Bioentity> iter = bioentities.iterator(); iter.hasNext() && golr_gene == null;) {
+				Bioentity gene = iter.next();
+				if (gene.getDb().equals("AspGD") && gene.getLocalId().startsWith("ASP")) {
+					golr_gene = gene;
 				}
 			}
+			log.info(bioentities.size() + " annotations returned for " + leaf.getId());
+		} else {
+			golr_gene = bioentities.iterator().next();
+		}
+		processGolrAnnotations(leaf, golr_gene, annots.getGeneAnnotations(), filtered);
+	}
+
+	/*
+	 * The cache is only used while GOlr can say which version of its index it is serving,
+	 * otherwise there'd be no telling whether the cached annotations are still current
+	 */
+	private static GolrAnnotationCache openCache(String GOlrURL) {
+		TouchupConfig config = TouchupConfig.inst();
+		if (config.golr_cache == null || config.golr_cache.isEmpty()) {
+			return null;
+		}
+		String snapshot = getGolrSnapshot(GOlrURL);
+		if (snapshot == null) {
+			log.warn("Not using the GOlr cache, as the index version is unknown");
+			return null;
+		}
+		try {
+			return GolrAnnotationCache.open(new File(config.golr_cache), snapshot, TimeUnit.HOURS.toMillis(config.golr_cache_hours));
+		} catch (IOException e) {
+			log.error("Unable to open the GOlr cache in " + config.golr_cache + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static List<GolrAnnotationDocument> askGolrForSynonym(RetrieveGolrAnnotations retriever, GolrAnnotationCache cache, String db, String synonym) throws IOException {
+		String key = db + ':' + synonym;
+		List<GolrAnnotationDocument> golrDocuments = cache != null ? cache.get(GolrAnnotationCache.SYNONYM, key) : null;
+		if (golrDocuments == null) {
+			golrDocuments = retriever.getGolrAnnotationsForSynonym(db, synonym);
+			if (cache != null) {
+				cache.put(GolrAnnotationCache.SYNONYM, key, golrDocuments);
+			}
 		}
+		return golrDocuments;
 	}
 
-	private static void askGolr(RetrieveGolrAnnotations retriever, List<String> gene_names, Map<String, Bioentity> id2gene) {
+	private static List<GolrAnnotationDocument> askGolrForGene(RetrieveGolrAnnotations retriever, GolrAnnotationCache cache, String gene) throws IOException {
+		List<GolrAnnotationDocument> golrDocuments = cache != null ? cache.get(GolrAnnotationCache.GENE, gene) : null;
+		if (golrDocuments == null) {
+			golrDocuments = retriever.getGolrAnnotationsForGene(gene);
+			if (cache != null) {
+				cache.put(GolrAnnotationCache.GENE, gene, golrDocuments);
+			}
+		}
+		return golrDocuments;
+	}
+
+	private static void askGolr(RetrieveGolrAnnotations retriever, List<GolrAnnotationDocument> golrDocuments, Map<String, Bioentity> id2gene, boolean filtered) throws IOException {
 		try {
-			List<GolrAnnotationDocument> golrDocuments = retriever.getGolrAnnotationsForGenes(gene_names, true);
 			if (golrDocuments.size() > 0) {
 				GafDocument annots = retriever.convert(golrDocuments);
 				Collection<Bioentity> bioentities = annots.getBioentities();
@@ -233,7 +432,7 @@ public class AnnotationUtil {
 						if (!mishap) {
 							id2gene.remove(golr_gene.getId());
 							List<GeneAnnotation> golr_annotations = (List<GeneAnnotation>) annots.getGeneAnnotations(golr_gene.getId());
-							processGolrAnnotations(leaf, golr_gene, golr_annotations);
+							processGolrAnnotations(leaf, golr_gene, golr_annotations, filtered);
 						} else {
 							log.debug("Bad Protein " + leaf.getId() + '?');
 						}
@@ -245,12 +444,12 @@ public class AnnotationUtil {
 		} catch (Exception e) {
 			String message = "Problem collecting experimental annotations because, \"" + e.getMessage() + "\"";
 			log.info(message);
-			System.exit(-1);
+			throw new IOException(message, e);
 		}
 	}
 
-	private static void processGolrAnnotations(Bioentity leaf, Bioentity golr_gene, List<GeneAnnotation> golr_annotations) {
-		List<GeneAnnotation> exp_annotations = getExperimentalAnnotations(golr_annotations);
+	private static void processGolrAnnotations(Bioentity leaf, Bioentity golr_gene, List<GeneAnnotation> golr_annotations, boolean filtered) {
+		List<GeneAnnotation> exp_annotations = filtered ? golr_annotations : getExperimentalAnnotations(golr_annotations);
 		for (GeneAnnotation golr_annot : exp_annotations) {
 			golr_annot.setBioentityObject(leaf);
 		}
@@ -308,9 +507,9 @@ public class AnnotationUtil {
 		if (Constant.EXP_strings.contains(eco)) {
 			keep = true;
 			if (annotation.getWithInfos() != null) {
-				List<String> withs = (List<String>) annotation.getWithInfos();
-				for (int i = withs.size() - 1; i >= 0 && keep; i--) {
-					keep &= !withs.get(i).startsWith(Constant.PANTHER_DB);
+				/* a set, rather than a list, when read from a GAF file */
+				for (Iterator<String> withs = annotation.getWithInfos().iterator(); withs.hasNext() && keep;) {
+					keep &= !withs.next().startsWith(Constant.PANTHER_DB);
 				}
 			}
 			if (keep) {
@@ -328,10 +527,8 @@ public class AnnotationUtil {
 				// there is at least one case where the exp. annotation was made to an obsolete term
 				String check = annotation.getCls();
 				List<String> alt = null;
-				if (OWLutil.inst().isObsolete(check)) {
-					alt = OWLutil.inst().replacedBy(check);
-				} else if (OWLutil.inst().getTerm(check) == null) {
-					// try as a synonym, may be obsolete
+				// an id that isn't a term of this release counts as obsolete, it may be a synonym (alt_id)
+				if (OWLutil.inst().isObsolete(annotation.getClsId())) {
 					alt = OWLutil.inst().replacedBy(check);
 				}
 				if (alt != null) {
@@ -410,6 +607,7 @@ public class AnnotationUtil {
 	public static GeneAnnotation isAnnotatedToTerm(List<GeneAnnotation> all_annotations, String term_id, String term_aspect) {
 		GeneAnnotation annotated_with_term = null;
 		if (all_annotations != null && term_id != null) {
+			int term = OWLutil.inst().getTermId(term_id);
 			for (int i = 0; i < all_annotations.size() && annotated_with_term == null; i++) {
 				GeneAnnotation check = all_annotations.get(i);
 				if (check.getAspect().equals(term_aspect)) {
@@ -419,11 +617,11 @@ public class AnnotationUtil {
 					}
 					else {
 						if (!check.isNegated()) {
-							if (OWLutil.inst().moreSpecific(go_id, term_id, true)) {
+							if (OWLutil.inst().moreSpecific(check.getClsId(), term, true)) {
 								annotated_with_term = check;
 							}
 						} else {
-							if (OWLutil.inst().moreSpecific(term_id, go_id, true)) {
+							if (OWLutil.inst().moreSpecific(term, check.getClsId(), true)) {
 								annotated_with_term = check;
 							}
 						}
@@ -462,7 +660,7 @@ public class AnnotationUtil {
 
 	public static List<String> getLatestGOID(Bioentity node, GeneAnnotation gaf_annotation) {
 		List<String> go_ids = new ArrayList<>();
-		if (OWLutil.inst().isObsolete(gaf_annotation.getCls())) {
+		if (OWLutil.inst().isObsolete(gaf_annotation.getClsId())) {
 			go_ids = OWLutil.inst().replacedBy(gaf_annotation.getCls());
 			if (go_ids.size() == 0) {
 				LogAlert.logObsolete(node, gaf_annotation);
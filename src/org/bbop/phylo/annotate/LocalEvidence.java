@@ -0,0 +1,387 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.annotate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.log4j.Logger;
+import org.bbop.phylo.config.TouchupConfig;
+import org.bbop.phylo.gaf.parser.GAFParser;
+import org.bbop.phylo.gaf.parser.GafDocument;
+import org.bbop.phylo.gaf.parser.GafObjectsBuilder;
+import org.bbop.phylo.gaf.parser.GpadGpiObjectsBuilder;
+import org.bbop.phylo.gaf.parser.GpadParser;
+import org.bbop.phylo.gaf.parser.LineFilter;
+import org.bbop.phylo.gaf.parser.SimpleEcoMapper;
+import org.bbop.phylo.io.golr.GolrAnnotationCache;
+import org.bbop.phylo.io.golr.RetrieveGolrAnnotations;
+import org.bbop.phylo.io.golr.RetrieveGolrAnnotations.GolrAnnotationDocument;
+import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.GeneAnnotation;
+import org.bbop.phylo.util.Constant;
+import org.bbop.phylo.util.OWLutil;
+import org.bbop.phylo.util.TimerUtil;
+
+/**
+ * The experimental annotations of a GO release, read from local GAF or GPAD/GPI files
+ * instead of being fetched from GOlr.
+ *
+ * The files are read once, only the annotations that pass {@link AnnotationUtil#isExpAnnotation}
+ * are kept, and they are written to an index on disk (in the same format as the GOlr cache),
+ * with an entry for every gene id and every synonym.
+ * The index is rebuilt whenever one of the files, or the GO release, changes.
+ *
+ * The evidence_files in the preferences may list .gaf and .gpad files (optionally gzipped).
+ * A .gpad file is read with the .gpi file of the same name, or with the only .gpi file if there is just one.
+ * GPAD files give ECO classes rather than evidence codes, so they need GO's gaf-eco-mapping.txt
+ * to be listed as well (any file whose name contains "eco-mapping").
+ *
+ * Shards of a run that start together may all find the index missing. Whichever gets the build lock
+ * first builds it, the others wait for it and then use what it built.
+ */
+public class LocalEvidence {
+
+	/* marks an index that was completely written */
+	private static final String BUILT = "built";
+
+	private static final String BUILD_LOCK = "evidence-build.lock";
+
+	private static final Logger log = Logger.getLogger(LocalEvidence.class);
+
+	private static LocalEvidence INSTANCE;
+
+	private final String snapshot;
+	private final GolrAnnotationCache index;
+	/* only used to turn the documents back into annotations, it never asks GOlr for anything */
+	private final RetrieveGolrAnnotations converter;
+
+	public static synchronized LocalEvidence inst() throws IOException {
+		List<File> files = getFiles();
+		String snapshot = getSnapshot(files);
+		if (INSTANCE == null || !INSTANCE.snapshot.equals(snapshot)) {
+			INSTANCE = new LocalEvidence(files, snapshot);
+		}
+		return INSTANCE;
+	}
+
+	private LocalEvidence(List<File> files, String snapshot) throws IOException {
+		this.snapshot = snapshot;
+		this.converter = new RetrieveGolrAnnotations(TouchupConfig.inst().GOlrURL, 0, true);
+		String dir = TouchupConfig.inst().evidence_index;
+		File index_dir = dir != null && dir.length() > 0 ? new File(dir) : new File(files.get(0).getAbsoluteFile().getParentFile(), "touchup-evidence");
+		index = GolrAnnotationCache.open(index_dir, snapshot, 0);
+		if (!index.contains(BUILT, snapshot)) {
+			try (RandomAccessFile lock_file = new RandomAccessFile(new File(index_dir, BUILD_LOCK), "rw");
+					FileLock lock = lock_file.getChannel().lock()) {
+				/* another process may have built it while this one was waiting for the lock */
+				index.refresh();
+				if (!index.contains(BUILT, snapshot)) {
+					build(files);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return identifies the files and the GO release the evidence was taken from
+	 */
+	public static String getSnapshot() {
+		try {
+			return getSnapshot(getFiles());
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			return null;
+		}
+	}
+
+	public RetrieveGolrAnnotations getConverter() {
+		return converter;
+	}
+
+	/**
+	 * @return the experimental annotations of the gene, an empty list if it has none
+	 */
+	public List<GolrAnnotationDocument> getForGene(String id) {
+		List<GolrAnnotationDocument> documents = index.get(GolrAnnotationCache.BIOENTITY, id);
+		return documents != null ? documents : Collections.<GolrAnnotationDocument>emptyList();
+	}
+
+	/**
+	 * @return the experimental annotations of all of the genes from this db that have this synonym
+	 */
+	public List<GolrAnnotationDocument> getForSynonym(String db, String synonym) {
+		List<GolrAnnotationDocument> genes = index.get(GolrAnnotationCache.SYNONYM, db + ':' + synonym);
+		if (genes == null) {
+			return Collections.emptyList();
+		}
+		List<GolrAnnotationDocument> documents = new ArrayList<>();
+		for (GolrAnnotationDocument gene : genes) {
+			documents.addAll(getForGene(gene.getBioentity()));
+		}
+		return documents;
+	}
+
+	private static List<File> getFiles() throws IOException {
+		List<String> paths = TouchupConfig.inst().evidence_files;
+		if (paths == null || paths.isEmpty()) {
+			throw new IOException("No evidence_files given for the local evidence");
+		}
+		List<File> files = new ArrayList<>();
+		for (String path : paths) {
+			File file = new File(path);
+			if (!file.isFile()) {
+				throw new IOException("Unable to find the evidence file " + path);
+			}
+			files.add(file);
+		}
+		return files;
+	}
+
+	/*
+	 * The index only has to be rebuilt when one of the files is replaced, or the GO release changes
+	 * as the obsolete terms that isExpAnnotation weeds out change with it
+	 */
+	private static String getSnapshot(List<File> files) {
+		StringBuilder snapshot = new StringBuilder("local#").append(OWLutil.inst().getVersion());
+		for (File file : files) {
+			snapshot.append('#').append(file.getName()).append(':').append(file.length()).append(':').append(file.lastModified());
+		}
+		return snapshot.toString();
+	}
+
+	private void build(List<File> files) throws IOException {
+		TimerUtil timer = new TimerUtil();
+		log.info("Indexing the experimental annotations in " + files);
+		index.clear();
+		EcoMapper eco_mapper = new EcoMapper(files);
+		Map<String, Bioentity> genes = new TreeMap<>();
+		Map<String, List<GolrAnnotationDocument>> annotations = new HashMap<>();
+		for (File file : files) {
+			String name = getName(file);
+			if (name.endsWith(".gaf")) {
+				add(readGaf(file), genes, annotations);
+			} else if (name.endsWith(".gpad")) {
+				add(readGpad(file, findGpi(file, files), eco_mapper), genes, annotations);
+			}
+		}
+		Map<String, List<GolrAnnotationDocument>> synonyms = new TreeMap<>();
+		Map<String, List<GolrAnnotationDocument>> bioentities = new LinkedHashMap<>();
+		for (Bioentity gene : genes.values()) {
+			bioentities.put(gene.getId(), annotations.get(gene.getId()));
+			if (gene.getSynonyms() != null) {
+				for (String synonym : gene.getSynonyms()) {
+					String key = gene.getDb() + ':' + synonym;
+					List<GolrAnnotationDocument> named = synonyms.get(key);
+					if (named == null) {
+						named = new ArrayList<>();
+						synonyms.put(key, named);
+					}
+					named.add(GolrAnnotationDocument.of(gene, null));
+				}
+			}
+		}
+		/* in bulk, as a release has far too many genes to take the cache's lock for each */
+		index.putAll(GolrAnnotationCache.BIOENTITY, bioentities);
+		index.putAll(GolrAnnotationCache.SYNONYM, synonyms);
+		index.put(BUILT, snapshot, new ArrayList<GolrAnnotationDocument>());
+		log.info("Indexed " + genes.size() + " genes with experimental annotations " + timer.reportElapsedTime());
+	}
+
+	/*
+	 * This is where the same filtering that was applied to the GOlr results is done, once for all families
+	 */
+	private static void add(GafDocument document, Map<String, Bioentity> genes, Map<String, List<GolrAnnotationDocument>> annotations) {
+		for (GeneAnnotation annotation : document.getGeneAnnotations()) {
+			Bioentity gene = annotation.getBioentityObject();
+			if (gene == null || !AnnotationUtil.isExpAnnotation(annotation)) {
+				continue;
+			}
+			List<GolrAnnotationDocument> gene_annotations = annotations.get(gene.getId());
+			if (gene_annotations == null) {
+				gene_annotations = new ArrayList<>();
+				annotations.put(gene.getId(), gene_annotations);
+				genes.put(gene.getId(), gene);
+			}
+			gene_annotations.add(GolrAnnotationDocument.of(gene, annotation));
+		}
+	}
+
+	private static GafDocument readGaf(File file) throws IOException {
+		GafObjectsBuilder builder = new GafObjectsBuilder();
+		/* don't bother building the annotations that are going to be thrown away */
+		builder.addFilter(new LineFilter<GAFParser>() {
+			@Override
+			public boolean accept(String line, int pos, GAFParser parser) {
+				return Constant.EXP_strings.contains(parser.getEvidence());
+			}
+		});
+		try (Reader reader = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8))) {
+			return builder.buildDocument(reader, file.getName(), file.getCanonicalPath());
+		} finally {
+			builder.dispose();
+		}
+	}
+
+	private static GafDocument readGpad(File gpad, File gpi, final EcoMapper eco_mapper) throws IOException {
+		GpadGpiObjectsBuilder builder = new GpadGpiObjectsBuilder(eco_mapper);
+		final Set<String> unknown_ecos = new TreeSet<>();
+		final int [] unknown_lines = new int[1];
+		builder.addGpadFilter(new LineFilter<GpadParser>() {
+			@Override
+			public boolean accept(String line, int pos, GpadParser parser) {
+				Pair<String, String> code = eco_mapper.getGoCode(parser.getEvidence_Code());
+				if (code == null) {
+					unknown_lines[0]++;
+					unknown_ecos.add(parser.getEvidence_Code());
+					return false;
+				}
+				return Constant.EXP_strings.contains(code.getLeft());
+			}
+		});
+		builder.setAspectProvider(new GpadGpiObjectsBuilder.AspectProvider() {
+			@Override
+			public String getAspect(String cls) {
+				return OWLutil.inst().getAspect(cls);
+			}
+		});
+		GafDocument document = builder.loadGpadGpi(gpad, gpi).getRight();
+		if (unknown_lines[0] > 0) {
+			/* these may well be experimental, the mapping file is probably older than the GPAD */
+			log.warn(unknown_lines[0] + " annotations in " + gpad.getName() + " were left out as their ECO classes are not in " + 
+					eco_mapper.getSource() + ": " + unknown_ecos);
+		}
+		return document;
+	}
+
+	private static File findGpi(File gpad, List<File> files) throws IOException {
+		String stem = getName(gpad);
+		stem = stem.substring(0, stem.length() - ".gpad".length());
+		List<File> gpis = new ArrayList<>();
+		for (File file : files) {
+			String name = getName(file);
+			if (name.endsWith(".gpi")) {
+				if (name.equals(stem + ".gpi")) {
+					return file;
+				}
+				gpis.add(file);
+			}
+		}
+		if (gpis.size() == 1) {
+			return gpis.get(0);
+		}
+		throw new IOException("Unable to tell which .gpi file goes with " + gpad);
+	}
+
+	/* the name without any .gz */
+	private static String getName(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".gz") ? name.substring(0, name.length() - ".gz".length()) : name;
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		return file.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(input) : input;
+	}
+
+	/*
+	 * Maps the ECO classes of GPAD files to GO evidence codes,
+	 * GO's gaf-eco-mapping.txt has lines of: code <tab> reference or "Default" <tab> ECO class
+	 */
+	private static class EcoMapper implements SimpleEcoMapper {
+		private final Map<String, Pair<String, String>> codes = new HashMap<>();
+		private final Map<String, String> defaults = new HashMap<>();
+		private File source;
+
+		private EcoMapper(List<File> files) throws IOException {
+			boolean gpad = false;
+			for (File file : files) {
+				gpad |= getName(file).endsWith(".gpad");
+				if (file.getName().contains("eco-mapping")) {
+					source = file;
+					try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8))) {
+						String line;
+						while ((line = reader.readLine()) != null) {
+							String [] columns = line.split("\t");
+							if (line.startsWith("#") || columns.length < 3) {
+								continue;
+							}
+							String ref = columns[1].equals("Default") ? null : columns[1];
+							add(columns[0], ref, columns[2]);
+						}
+					}
+				}
+			}
+			if (gpad && codes.isEmpty()) {
+				throw new IOException("GPAD files need GO's gaf-eco-mapping.txt among the evidence_files, " +
+						"without it the experimental annotations can't be told apart by their ECO classes");
+			}
+		}
+
+		private String getSource() {
+			return source != null ? source.getName() : "the ECO mapping";
+		}
+
+		private void add(String code, String ref, String eco) {
+			if (ref == null) {
+				defaults.put(code, eco);
+			}
+			if (!codes.containsKey(eco) || ref == null) {
+				codes.put(eco, Pair.of(code, ref));
+			}
+		}
+
+		@Override
+		public String getEco(String goCode, String ref) {
+			return defaults.get(goCode);
+		}
+
+		@Override
+		public String getEco(String goCode, Collection<String> allRefs) {
+			return defaults.get(goCode);
+		}
+
+		@Override
+		public Pair<String, String> getGoCode(String eco) {
+			return codes.get(eco);
+		}
+	}
+}
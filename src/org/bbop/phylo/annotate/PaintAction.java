@@ -251,7 +251,7 @@ public class PaintAction {
 		assoc.setCls(go_id);
 		assoc.setQualifiers(qualifiers);
 		assoc.addReferenceId(reference);
-		assoc.setAspect(OWLutil.inst().getAspect(go_id));
+		assoc.setAspect(OWLutil.inst().getAspect(assoc.getClsId()));
 		assoc.setAssignedBy(Constant.PAINT_AS_SOURCE);
 		if (date == null) {
 			date = getDate();
@@ -347,10 +347,11 @@ public class PaintAction {
 		List<GeneAnnotation> current_set = node.getAnnotations();
 		List<GeneAnnotation> removal = new ArrayList<> ();
 		if (current_set != null) {
+			int term = OWLutil.inst().getTermId(go_id);
 			for (GeneAnnotation assoc : current_set) {
 				if (AnnotationUtil.isPAINTAnnotation(assoc)) {
 					String check_term = assoc.getCls();
-					if (!go_id.equals(check_term) && OWLutil.inst().moreSpecific(go_id, check_term)) {
+					if (!go_id.equals(check_term) && OWLutil.inst().moreSpecific(term, assoc.getClsId())) {
 						removal.add(assoc);
 						//						if (removed != null)
 						//							removed.add(assoc);
@@ -583,11 +584,10 @@ public class PaintAction {
 					// if yes then don't need to add it.
 					boolean covered = false;
 					for (GeneAnnotation check_assoc : ancestral_collection) {
-						String check_term = check_assoc.getCls();
 						// is first term/argument (from ancestral protein)
 						// is a broader term for the second term/argument (from descendant protein)
 						// then there is no need to re-associate the broader term.
-						covered |= OWLutil.inst().moreSpecific(ancestral_term, check_term);
+						covered |= OWLutil.inst().moreSpecific(ancestral_assoc.getClsId(), check_assoc.getClsId());
 					}
 					if (!covered) {
 						ancestral_collection.add(ancestral_assoc);
@@ -678,7 +678,7 @@ public class PaintAction {
 		assoc.setDirectNot(false);
 		assoc.setIsNegated(false);
 		assoc.setEvidence(Constant.ANCESTRAL_EVIDENCE_CODE, null);
-		String aspect = OWLutil.inst().getAspect(assoc.getCls());
+		String aspect = OWLutil.inst().getAspect(assoc.getClsId());
 		GeneAnnotation a = getAncestralNodeWithPositiveEvidenceForTerm(assoc.getBioentityObject().getParent(), assoc.getCls(), aspect);
 		if (a != null) {
 			Collection<String> withs = new ArrayList<>();
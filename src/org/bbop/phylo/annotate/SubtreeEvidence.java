@@ -0,0 +1,133 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.annotate;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.GeneAnnotation;
+import org.bbop.phylo.model.Tree;
+
+/**
+ * For every node of a family's tree, the terms of the experimental annotations found in its subtree
+ * that count towards deciding whether a new term is too specific for that node
+ * (positive, and either on a leaf or made to the MRC).
+ * Worked out in one post-order pass, so that check becomes a walk over one small sorted array
+ * rather than a walk over the subtree for every GAF row.
+ *
+ * It is only valid for as long as the experimental annotations don't change,
+ * i.e. while a family's GAF is being propagated.
+ */
+public class SubtreeEvidence {
+
+	private static final int [] NONE = new int[0];
+
+	private final Map<Bioentity, int []> subtree_terms;
+
+	public SubtreeEvidence(Tree tree) {
+		subtree_terms = new IdentityHashMap<>();
+		if (tree != null && tree.getRoot() != null) {
+			collect(tree.getRoot());
+		}
+	}
+
+	/*
+	 * The sorted term handles below (and at) the node, null if the node isn't part of the tree.
+	 * A handle of -1 stands for a term that isn't in the ontology.
+	 */
+	public int [] getTerms(Bioentity node) {
+		return subtree_terms.get(node);
+	}
+
+	private int [] collect(Bioentity node) {
+		int [] own = NONE;
+		List<GeneAnnotation> associations = AnnotationUtil.getExperimentalAssociations(node);
+		if (associations != null) {
+			own = new int[associations.size()];
+			int count = 0;
+			for (GeneAnnotation annotation : associations) {
+				if (!annotation.isNegated() && (annotation.isMRC() || node.isLeaf())) {
+					own[count++] = annotation.getClsId();
+				}
+			}
+			own = distinct(own, count);
+		}
+		int [] terms = own;
+		List<Bioentity> children = node.getChildren();
+		if (children != null) {
+			for (Bioentity child : children) {
+				terms = union(terms, collect(child));
+			}
+		}
+		subtree_terms.put(node, terms);
+		return terms;
+	}
+
+	private static int [] distinct(int [] values, int count) {
+		if (count == 0) {
+			return NONE;
+		}
+		Arrays.sort(values, 0, count);
+		int size = 1;
+		for (int i = 1; i < count; i++) {
+			if (values[i] != values[size - 1]) {
+				values[size++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	/*
+	 * Merge two sorted arrays, handing back one of them as it is when the other adds nothing
+	 */
+	private static int [] union(int [] a, int [] b) {
+		if (b.length == 0) {
+			return a;
+		}
+		if (a.length == 0) {
+			return b;
+		}
+		int [] merged = new int[a.length + b.length];
+		int i = 0, j = 0, size = 0;
+		while (i < a.length || j < b.length) {
+			int next;
+			if (j >= b.length || (i < a.length && a[i] < b[j])) {
+				next = a[i++];
+			} else if (i >= a.length || b[j] < a[i]) {
+				next = b[j++];
+			} else {
+				next = a[i++];
+				j++;
+			}
+			merged[size++] = next;
+		}
+		if (size == a.length) {
+			return a;
+		}
+		if (size == b.length) {
+			return b;
+		}
+		return Arrays.copyOf(merged, size);
+	}
+}
@@ -91,6 +91,7 @@ public class WithEvidence {
 		regulator_of = new ArrayList<> ();
 
 		qualifiers = 0;
+		int go_term = OWLutil.inst().getTermId(go_id);
 		for (Bioentity leaf : leaf_list) {
 			List<GeneAnnotation> exp_annotations = AnnotationUtil.getExperimentalAssociations(leaf);
 			if (exp_annotations != null && !exp_annotations.isEmpty()) {
@@ -101,7 +102,7 @@ public class WithEvidence {
 						 * Is the term in question (go_id) a parental/broader term than
 						 * the term associated to the leaf node (exp_term)
 						 */
-					boolean add = (exp_term.equals(go_id)) || OWLutil.inst().moreSpecific(exp_term, go_id);
+					boolean add = (exp_term.equals(go_id)) || OWLutil.inst().moreSpecific(exp_assoc.getClsId(), go_term);
 					
                     /*
                     * Don't add this node if it is already included.
@@ -128,7 +129,7 @@ public class WithEvidence {
 							exp_withs.remove(leaf.getId());
 						}
 					} else {
-						if (OWLutil.inst().moreSpecific(exp_term, go_id, true)) {
+						if (OWLutil.inst().moreSpecific(exp_assoc.getClsId(), go_term, true)) {
 							boolean add_it = true;
 							for (GeneAnnotation annot : regulator_of) {
 								add_it &= !annot.getCls().equals(exp_term);
@@ -2,6 +2,8 @@ package org.bbop.phylo.config;
 
 import java.io.File;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -12,6 +14,35 @@ public class TouchupConfig {
 	public String gafdir;
 	public String treedir;
 	public String GOlrURL;
+	/* where the experimental annotations come from: "golr" or "local", the files listed in evidence_files */
+	public String evidence_provider;
+	/* the GAF, or GPAD and GPI, files of a GO release that the local evidence is read from */
+	public List<String> evidence_files;
+	/* a directory for the index of the local evidence, "" to keep it next to the first of the evidence_files */
+	public String evidence_index;
+	/* MB of heap that the families being touched up at the same time may use, 0 for 3/4 of the maximum heap */
+	public int memory_budget;
+	/* the local port that the touchup daemon listens on */
+	public int daemon_port;
+	/* how many requests (batches of genes or pages of them) may be waiting on the GOlr server at once, across all families */
+	public int golr_fetchers;
+	/* a directory in which to keep the annotations GOlr returned, "" for none */
+	public String golr_cache;
+	/* how many hours the cached annotations of a gene are used for before asking GOlr again, 0 for as long as the index is unchanged */
+	public int golr_cache_hours;
+	/* a GO snapshot compiled with --compile-go, used instead of parsing go.obo until it is brought up to date with --refresh-go */
+	public String go_snapshot;
+	/* 
+	 * how go.obo is read when there is no current snapshot: "owl" through OWLAPI and ELK, or "obo" by the lightweight OBO loader.
+	 * Only switch to "obo" once --verify-go has found no differences on the release in use.
+	 */
+	public String go_loader;
+
+	public static final String OWL_LOADER = "owl";
+	public static final String OBO_LOADER = "obo";
+
+	public static final String GOLR_EVIDENCE = "golr";
+	public static final String LOCAL_EVIDENCE = "local";
 
 	private static Logger LOG = Logger.getLogger(TouchupYaml.class);
 
@@ -36,6 +67,16 @@ public class TouchupConfig {
 		gafdir = "";
 		treedir = "";
 		GOlrURL = "";
+		evidence_provider = GOLR_EVIDENCE;
+		evidence_files = new ArrayList<>();
+		evidence_index = "";
+		memory_budget = 0;
+		daemon_port = 8765;
+		golr_fetchers = 4;
+		golr_cache = "";
+		golr_cache_hours = 24 * 7;
+		go_snapshot = "";
+		go_loader = OWL_LOADER;
 		preferences = this;
 	}
 
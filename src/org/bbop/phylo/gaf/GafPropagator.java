@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,6 +33,7 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.bbop.phylo.annotate.AnnotationUtil;
 import org.bbop.phylo.annotate.PaintAction;
+import org.bbop.phylo.annotate.SubtreeEvidence;
 import org.bbop.phylo.annotate.WithEvidence;
 import org.bbop.phylo.gaf.parser.CommentListener;
 import org.bbop.phylo.gaf.parser.GAFParser;
@@ -40,6 +42,7 @@ import org.bbop.phylo.gaf.parser.GafObjectsBuilder;
 import org.bbop.phylo.io.panther.IDmap;
 import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Family;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.bbop.phylo.tracking.LogAction;
 import org.bbop.phylo.tracking.LogAlert;
@@ -47,6 +50,7 @@ import org.bbop.phylo.tracking.LogEntry;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.FileUtil;
 import org.bbop.phylo.util.OWLutil;
+import org.bbop.phylo.util.TermMatrix;
 
 public class GafPropagator {
 
@@ -199,10 +203,15 @@ public class GafPropagator {
 				String full_name = gaf_file.getAbsolutePath();
 				gafdoc = builder.buildDocument(full_name);
 				family.setGafComments(gafdoc.getComments());
+				FamilyContext.current().setTermMatrix(buildTermMatrix(gafdoc, family));
+				FamilyContext.current().setSubtreeEvidence(new SubtreeEvidence(family.getTree()));
 				propagate(gafdoc, family);
 			} catch (IOException | URISyntaxException e) {
 				log.warn("URI Syntax exception for " + family.getFamily_name());
 				ok = false;
+			} finally {
+				FamilyContext.current().setTermMatrix(null);
+				FamilyContext.current().setSubtreeEvidence(null);
 			}
 		} else {
 			log.error("GAF directory is invalid: " + family_dir);
@@ -210,6 +219,33 @@ public class GafPropagator {
 		return ok;
 	}
 
+	/*
+	 * A family only involves the terms of its own annotations (experimental or otherwise) and those in its PAINT GAF,
+	 * so all of the subsumption questions that propagation asks can be answered up front
+	 */
+	private static TermMatrix buildTermMatrix(GafDocument gafdoc, Family family) {
+		Set<String> go_ids = new HashSet<>();
+		for (Bioentity node : family.getTree().getBioentities()) {
+			List<GeneAnnotation> annotations = node.getAnnotations();
+			if (annotations != null) {
+				for (GeneAnnotation annotation : annotations) {
+					go_ids.add(annotation.getCls());
+				}
+			}
+		}
+		OWLutil owl = OWLutil.inst();
+		for (GeneAnnotation gaf_annotation : gafdoc.getGeneAnnotations()) {
+			String go_id = gaf_annotation.getCls();
+			go_ids.add(go_id);
+			if (owl.isObsolete(go_id)) {
+				go_ids.addAll(owl.replacedBy(go_id));
+			}
+		}
+		TermMatrix matrix = owl.buildTermMatrix(go_ids);
+		log.debug(family.getFamily_name() + " involves " + matrix.size() + " terms");
+		return matrix;
+	}
+
 	private static void applyNots(Family family, Map<Bioentity, List<GeneAnnotation>> negate_list) {
 		/*
         Leaf annotation were also added to the list and these will be redundant if the
@@ -272,7 +308,7 @@ public class GafPropagator {
 						if (match) {
 							match = assoc.getCls().equals(notted_gaf_annot.getCls());
 							if (!match) {
-								match &= owl.moreSpecific(notted_gaf_annot.getCls(), assoc.getCls());
+								match &= owl.moreSpecific(notted_gaf_annot.getClsId(), assoc.getClsId());
 								if (match) {
 									log.info("negating subclass for " + notted_gaf_annot);
 								}
@@ -1,6 +1,9 @@
 package org.bbop.phylo.gaf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -18,8 +21,10 @@ import org.bbop.phylo.io.panther.IDmap;
 import org.bbop.phylo.io.panther.ParsingHack;
 import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Family;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.bbop.phylo.model.Tree;
+import org.bbop.phylo.tracking.FamilyMetrics;
 import org.bbop.phylo.tracking.LogAction;
 import org.bbop.phylo.tracking.LogEntry;
 import org.bbop.phylo.tracking.LogUtil;
@@ -30,19 +35,19 @@ public class GafRecorder {
 
 	private static final Logger log = Logger.getLogger(GafRecorder.class);
 
-	private static GafRecorder INSTANCE;
+	private static final String GAF_COMMENT = "!";
 
 	private GafDocument questioned_annots;
 	private Map<GeneAnnotation, String> challenged_annots;
 
-	private GafRecorder() {
+	/*
+	 * Each FamilyContext owns one of these, use inst() to get the one for the current family
+	 */
+	public GafRecorder() {
 	}
 
 	public static GafRecorder inst() {
-		if (INSTANCE == null) {
-			INSTANCE = new GafRecorder();
-		}
-		return INSTANCE;
+		return FamilyContext.current().getGafRecorder();
 	}
 
 	public void clearChallenges() {
@@ -60,10 +65,7 @@ public class GafRecorder {
 			addComments(family, comment, gaf_doc);
 			Map<Bioentity, String> originalIDs = new HashMap<>();
 			addAnnotations(family, tree, tree.getRoot(), gaf_doc, originalIDs);
-			GafWriter gaf_writer = new GafWriter();
-			gaf_writer.setStream(gaf_file);
-			gaf_writer.write(gaf_doc);
-			IOUtils.closeQuietly(gaf_writer);
+			save(gaf_doc, gaf_file, GAF_COMMENT);
 			Set<Bioentity> modified = originalIDs.keySet();
 			for (Bioentity modified_node : modified) {
 				String originalID = originalIDs.get(modified_node);
@@ -81,23 +83,18 @@ public class GafRecorder {
 
 			if (questioned_annots != null && !questioned_annots.getGeneAnnotations().isEmpty()) {
 				File challenge_file = new File(family_dir, family_name + Constant.QUESTIONED_SUFFIX);
-				GafWriter challenge_writer = new GafWriter();
-				gaf_writer.setStream(challenge_file);
-				gaf_writer.write(questioned_annots);
-				IOUtils.closeQuietly(challenge_writer);
+				save(questioned_annots, challenge_file, null);
 			}
 			if (challenged_annots != null && !challenged_annots.isEmpty()) {
 				File challenge_file = new File(family_dir, family_name + Constant.CHALLENGED_SUFFIX);
 				GafDocument gaf = new GafDocument(gaf_file.getAbsolutePath(), family_dir.getAbsolutePath());
-				GafWriter challenge_writer = new GafWriter();
 				Set<GeneAnnotation> disputed = challenged_annots.keySet();
 				for (GeneAnnotation dispute : disputed) {
 					gaf.addComment(challenged_annots.get(dispute));
 					gaf.addGeneAnnotation(dispute);
 				}
-				gaf_writer.setStream(challenge_file);
-				gaf_writer.write(gaf);
-				IOUtils.closeQuietly(challenge_writer);
+				/* the comments here are the curators' rationales, so they do count */
+				save(gaf, challenge_file, null);
 			}
 		} else {
 			log.error("Unable to save paint GAF for " + family_name + " in " + family_dir);
@@ -113,16 +110,31 @@ public class GafRecorder {
 			GafDocument gaf_doc = new GafDocument(gaf_file.getAbsolutePath(), family_dir.getAbsolutePath());
 			addComments(family, comment, gaf_doc);
 			addExpAnnotations(family, tree.getLeaves(), gaf_doc);
-			GafWriter gaf_writer = new GafWriter();
-			gaf_writer.setStream(gaf_file);
-			gaf_writer.write(gaf_doc);
-			IOUtils.closeQuietly(gaf_writer);
+			save(gaf_doc, gaf_file, GAF_COMMENT);
 			log.info("Wrote experimental evidence GAF to " + gaf_file);
 		} else {
 			log.error("Unable to save experimental evidence GAF for " + family_name + " in " + family_dir);
 		}		
 	}
 
+	/*
+	 * The GAF is rendered in memory and the file only replaced if it would differ.
+	 * Lines starting with ignore_prefix don't count, the header comments carry the date of each run.
+	 */
+	private void save(GafDocument gaf_doc, File gaf_file, String ignore_prefix) {
+		ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+		GafWriter gaf_writer = new GafWriter();
+		gaf_writer.setStream(new PrintStream(rendered));
+		gaf_writer.write(gaf_doc);
+		IOUtils.closeQuietly(gaf_writer);
+		try {
+			boolean changed = FileUtil.writeIfChanged(gaf_file, rendered.toByteArray(), ignore_prefix, null);
+			FamilyMetrics.inst().addOutput(gaf_file, changed);
+		} catch (IOException e) {
+			log.error("Unable to write " + gaf_file + ": " + e.getMessage());
+		}
+	}
+
 	private void addAnnotations(Family family, Tree tree, Bioentity node, GafDocument gaf_doc, Map<Bioentity, String> originalIDs) {
 		if (node.isPruned()) {
 			/* Write out one row to record the pruned branch */
@@ -1,26 +1,61 @@
 package org.bbop.phylo.io.golr;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.utils.URIBuilder;
+import org.bbop.phylo.model.FamilyContext;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
 public abstract class AbstractRetrieveGolr {
 	
 	protected static final Gson GSON = new GsonBuilder().create();
 	
+	/* results larger than this follow a cursor, rather than asking for pages at ever deeper offsets */
+	static int PAGE_CURSOR_LIMIT = 10000;
+	
+	/* 
+	 * The most requests this process may have open against GOlr at once, whichever family, 
+	 * batch or page they are for. Those waiting their turn (or backing off before a retry) hold on to theirs.
+	 */
+	private static int maxRequests = 4;
+	private static Semaphore requests = new Semaphore(maxRequests);
+	
+	private static final ExecutorService PAGE_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger(0);
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "golr-page-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	private final String server;
 	private int retryCount;
 	
@@ -37,7 +72,36 @@ public abstract class AbstractRetrieveGolr {
 	
 	protected abstract List<String> getRelevantFields();
 	
+	/**
+	 * Sets the budget of requests that all of the retrievers share
+	 */
+	public static synchronized void setMaxRequests(int max) {
+		max = Math.max(1, max);
+		if (max != maxRequests) {
+			/* requests already under way give their permit back to the budget they took it from */
+			maxRequests = max;
+			requests = new Semaphore(max);
+		}
+	}
+	
+	static synchronized int getMaxRequests() {
+		return maxRequests;
+	}
+	
+	private static synchronized Semaphore getRequests() {
+		return requests;
+	}
+	
 	URI createGolrRequest(List<String []> tagvalues, String category, int start, int pagination) throws IOException {
+		return createGolrRequest(tagvalues, category, start, pagination, null);
+	}
+	
+	/**
+	 * The documents are sorted by id, so that pages asked for by start and by cursor line up
+	 * 
+	 * @param cursorMark "*" for the first page of a cursor, then the nextCursorMark of the previous page, or null to page by start
+	 */
+	URI createGolrRequest(List<String []> tagvalues, String category, int start, int pagination, String cursorMark) throws IOException {
 		try {
 			URIBuilder builder = new URIBuilder(server);
 			String currentPath = StringUtils.trimToEmpty(builder.getPath());
@@ -54,6 +118,11 @@ public abstract class AbstractRetrieveGolr {
 			builder.addParameter("q","*:*");
 			builder.addParameter("rows", Integer.toString(pagination));
 			builder.addParameter("start", Integer.toString(start));
+			// a cursor needs a sort that ends with the unique key
+			builder.addParameter("sort", "id asc");
+			if (cursorMark != null) {
+				builder.addParameter("cursorMark", cursorMark);
+			}
 			builder.addParameter("fq", "document_category:\""+category+"\"");
 			for (String [] tagvalue : tagvalues) {
 				if (tagvalue.length == 2) {
@@ -79,12 +148,88 @@ public abstract class AbstractRetrieveGolr {
 		}
 	}
 	
-	protected String getJsonStringFromUri(URI uri) throws IOException {
-		logRequest(uri);
-		return getJsonStringFromUri(uri, retryCount);
+	/**
+	 * Ask the Solr index behind GOlr which version of the index it is serving.
+	 * The version changes whenever the index is reloaded, so it serves to identify
+	 * the snapshot of annotations that a family was touched up against.
+	 */
+	public String getIndexVersion() throws IOException {
+		URI uri;
+		try {
+			URIBuilder builder = new URIBuilder(server);
+			String currentPath = StringUtils.trimToEmpty(builder.getPath());
+			builder.setPath(currentPath+"/admin/luke");
+			builder.addParameter("wt", "json");
+			builder.addParameter("show", "index");
+			builder.addParameter("numTerms", "0");
+			uri = builder.build();
+		} catch (URISyntaxException e) {
+			throw new IOException("Could not build URI for Golr index request", e);
+		}
+		return readFromUri(uri, new ResponseReader<String>() {
+			@Override
+			public String read(Reader response) throws IOException {
+				try {
+					GolrIndexEnvelope envelope = GSON.fromJson(new JsonReader(response), GolrIndexEnvelope.class);
+					if (envelope == null || envelope.index == null || envelope.index.version == null) {
+						throw new UnexpectedResponseException("Unexpected response content in GOLR index response.");
+					}
+					return envelope.index.version;
+				} catch (JsonParseException e) {
+					throw new IOException("Could not parse JSON response.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the body of a response as it arrives
+	 */
+	protected interface ResponseReader<T> {
+		
+		/**
+		 * @param response may be read again from the start if the request has to be retried
+		 * @throws IOException to retry the request, unless it is an {@link UnexpectedResponseException}
+		 */
+		public T read(Reader response) throws IOException;
+	}
+
+	/**
+	 * A response that did arrive, but can't be used, so there is no point in asking again
+	 */
+	protected static class UnexpectedResponseException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public UnexpectedResponseException(String message) {
+			super(message);
+		}
+
+		public UnexpectedResponseException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	protected <T> T readFromUri(URI uri, ResponseReader<T> reader) throws IOException {
+		Semaphore budget = getRequests();
+		try {
+			budget.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to ask GOlr", e);
+		}
+		try {
+			logRequest(uri);
+			long start = System.nanoTime();
+			T result = readFromUri(uri, reader, retryCount);
+			logResponse(uri, start);
+			return result;
+		} finally {
+			budget.release();
+		}
 	}
 	
-	protected String getJsonStringFromUri(URI uri, int retryCount) throws IOException {
+	protected <T> T readFromUri(URI uri, ResponseReader<T> reader, int retryCount) throws IOException {
 		final URL url = uri.toURL();
 		final HttpURLConnection connection;
 		InputStream response = null;
@@ -96,7 +241,7 @@ public abstract class AbstractRetrieveGolr {
 		}
 		catch (IOException e) {
 			IOUtils.closeQuietly(response);
-			return retryRequest(uri, e, retryCount);
+			return retryRequest(uri, reader, e, retryCount);
 		}
 		// check status code
 		final int status;
@@ -104,10 +249,11 @@ public abstract class AbstractRetrieveGolr {
 			status = connection.getResponseCode();
 		} catch (IOException e) {
 			IOUtils.closeQuietly(response);
-			return retryRequest(uri, e, retryCount);
+			return retryRequest(uri, reader, e, retryCount);
 		}
 		// handle unexpected status code
 		if (status != 200) {
+			IOUtils.closeQuietly(response);
 			// try to check error stream
 			String errorMsg = getErrorMsg(connection);
 			
@@ -119,12 +265,12 @@ public abstract class AbstractRetrieveGolr {
 				sb.append(errorMsg);
 			}
 			IOException e = new IOException(sb.toString());
-			return retryRequest(uri, e, retryCount);
+			return retryRequest(uri, reader, e, retryCount);
 		}
 		
-		// try to detect charset
+		// try to detect charset, Solr sends UTF-8 when it doesn't say
 		String contentType = connection.getHeaderField("Content-Type");
-		String charset = null;
+		String charset = "UTF-8";
 
 		if (contentType != null) {
 			for (String param : contentType.replace(" ", "").split(";")) {
@@ -135,35 +281,205 @@ public abstract class AbstractRetrieveGolr {
 			}
 		}
 
-		// get string response from stream
-		String json;
+		// hand the response over as it arrives, rather than copying it all into a String first
 		try {
-			if (charset != null) {
-				json = IOUtils.toString(response, charset);
-			}
-			else {
-				json = IOUtils.toString(response);
-			}
+			return reader.read(new BufferedReader(new InputStreamReader(response, charset)));
+		} catch (UnexpectedResponseException e) {
+			logRequestError(uri, e);
+			throw e;
 		} catch (IOException e) {
-			return retryRequest(uri, e, retryCount);
+			return retryRequest(uri, reader, e, retryCount);
 		}
 		finally {
 			IOUtils.closeQuietly(response);
 		}
-		return json;
 	}
 
-	protected String retryRequest(URI uri, IOException e, int retryCount) throws IOException {
+	protected <T> T retryRequest(URI uri, ResponseReader<T> reader, IOException e, int retryCount) throws IOException {
 		if (retryCount > 0) {
 			int remaining = retryCount - 1;
 			defaultRandomWait();
 			logRetry(uri, e, remaining);
-			return getJsonStringFromUri(uri, remaining);
+			return readFromUri(uri, reader, remaining);
 		}
 		logRequestError(uri, e);
 		throw e;
 	}
 	
+	/**
+	 * Reads the documents of a GOlr response one at a time, straight into the list,
+	 * without building the whole response in memory first.
+	 * 
+	 * @return how many documents matched, of which this response holds at most a page
+	 */
+	protected <T> GolrPage readGolrDocuments(URI uri, final Class<T> documentClass, final List<T> documents) throws IOException {
+		final int mark = documents.size();
+		return readFromUri(uri, new ResponseReader<GolrPage>() {
+			@Override
+			public GolrPage read(Reader response) throws IOException {
+				// drop whatever an earlier attempt got before it failed
+				documents.subList(mark, documents.size()).clear();
+				JsonReader reader = new JsonReader(response);
+				String status = null;
+				GolrPage page = null;
+				String nextCursorMark = null;
+				try {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						String name = reader.nextName();
+						if ("responseHeader".equals(name)) {
+							status = readStatus(reader);
+						}
+						else if ("response".equals(name)) {
+							page = new GolrPage(readDocuments(reader, documentClass, documents));
+						}
+						else if ("nextCursorMark".equals(name)) {
+							nextCursorMark = reader.nextString();
+						}
+						else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} catch (IllegalStateException | JsonParseException e) {
+					// most likely a response that was cut short, so worth another try
+					throw new IOException("Could not parse JSON response.", e);
+				}
+				if (status == null || page == null) {
+					throw new UnexpectedResponseException("Unexpected response content in GOLR response.");
+				}
+				if ("0".equals(status) == false) {
+					throw new UnexpectedResponseException("Unexpected response status in GOLR response header: "+status);
+				}
+				page.nextCursorMark = nextCursorMark;
+				return page;
+			}
+		});
+	}
+
+	/**
+	 * Retrieves all of the documents that match, in as few requests as it takes.
+	 * The first page says how many documents there are, and it already starts a cursor.
+	 * Up to PAGE_CURSOR_LIMIT of them the remaining pages are asked for side by side, 
+	 * beyond that the cursor is followed instead, as deep start offsets get slow.
+	 * A server that doesn't know about cursors is paged by offset regardless.
+	 * Either way the documents are returned in the order of their ids.
+	 */
+	protected <T> List<T> getGolrDocuments(List<String []> tagvalues, String category, Class<T> documentClass, int pagination) throws IOException {
+		final List<T> documents = new ArrayList<T>();
+		final GolrPage first = readGolrDocuments(createGolrRequest(tagvalues, category, 0, pagination, "*"), documentClass, documents);
+		if (first.numFound <= documents.size()) {
+			return documents;
+		}
+		if (first.numFound > PAGE_CURSOR_LIMIT && first.nextCursorMark != null) {
+			followCursor(tagvalues, category, documentClass, pagination, first, documents);
+		} else {
+			getRemainingPages(tagvalues, category, documentClass, pagination, first.numFound, documents);
+		}
+		return documents;
+	}
+
+	/*
+	 * Carry on from the first page until the cursor stops moving or everything is in
+	 */
+	private <T> void followCursor(List<String []> tagvalues, String category, Class<T> documentClass, int pagination, 
+			GolrPage first, List<T> documents) throws IOException {
+		String previous = "*";
+		String cursorMark = first.nextCursorMark;
+		while (cursorMark != null && !cursorMark.equals(previous) && documents.size() < first.numFound) {
+			GolrPage page = readGolrDocuments(createGolrRequest(tagvalues, category, 0, pagination, cursorMark), documentClass, documents);
+			previous = cursorMark;
+			cursorMark = page.nextCursorMark;
+		}
+	}
+
+	/*
+	 * Asks for exactly the pages that are still missing and adds them to the documents in page order.
+	 * No more pages are handed to threads than there are requests in the shared budget.
+	 */
+	private <T> void getRemainingPages(final List<String []> tagvalues, final String category, final Class<T> documentClass, 
+			final int pagination, int numFound, List<T> documents) throws IOException {
+		List<Future<List<T>>> pages = new ArrayList<Future<List<T>>>();
+		final FamilyContext context = FamilyContext.current();
+		final Semaphore inFlight = new Semaphore(getMaxRequests());
+		try {
+			for (int start = pagination; start < numFound; start += pagination) {
+				final int pageStart = start;
+				inFlight.acquire();
+				pages.add(PAGE_POOL.submit(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws IOException {
+						// so that the request timings are charged to the family that asked for them
+						FamilyContext.bind(context);
+						try {
+							List<T> page = new ArrayList<T>(pagination);
+							readGolrDocuments(createGolrRequest(tagvalues, category, pageStart, pagination), documentClass, page);
+							return page;
+						} finally {
+							FamilyContext.unbind();
+							inFlight.release();
+						}
+					}
+				}));
+			}
+			for (Future<List<T>> page : pages) {
+				documents.addAll(page.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for GOlr", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Problem retrieving a page from GOlr", cause);
+		} finally {
+			for (Future<List<T>> page : pages) {
+				page.cancel(true);
+			}
+		}
+	}
+
+	private static String readStatus(JsonReader reader) throws IOException {
+		String status = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("status".equals(reader.nextName())) {
+				status = reader.nextString();
+			}
+			else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return status;
+	}
+
+	private static <T> int readDocuments(JsonReader reader, Class<T> documentClass, List<T> documents) throws IOException {
+		int numFound = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("numFound".equals(name)) {
+				numFound = reader.nextInt();
+			}
+			else if ("docs".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					T document = GSON.fromJson(reader, documentClass);
+					documents.add(document);
+				}
+				reader.endArray();
+			}
+			else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return numFound;
+	}
+
 	private static String getErrorMsg(HttpURLConnection connection) {
 		String errorMsg = null;
 		InputStream errorStream = null;
@@ -204,6 +520,11 @@ public abstract class AbstractRetrieveGolr {
 		// hook to implement logging of requests
 	}
 	
+	protected void logResponse(URI uri, long start_nanos) {
+		// do nothing
+		// hook to implement logging of response times, including any retries
+	}
+	
 	protected void logRequestError(URI uri, IOException exception) {
 		// do nothing
 		// hook to implement logging of request errors
@@ -215,36 +536,22 @@ public abstract class AbstractRetrieveGolr {
 	}
 	
 	
-	protected <T extends GolrEnvelope<?>> T parseGolrResponse(String response, Class<T> clazz) throws IOException {
-		try {
-			T envelope = GSON.fromJson(response, clazz);
-			if (envelope == null || envelope.response == null || envelope.responseHeader == null) {
-				throw new IOException("Unexpected response content in GOLR response.");
-			}
-			if ("0".equals(envelope.responseHeader.status) == false) {
-				throw new IOException("Unexpected response status in GOLR response header: "+envelope.responseHeader.status);
-			}
-			return envelope;
-		} catch (JsonSyntaxException e) {
-			throw new IOException("Could not parse JSON response.", e);
+	protected static class GolrPage {
+		final int numFound;
+		String nextCursorMark;
+
+		GolrPage(int numFound) {
+			this.numFound = numFound;
 		}
 	}
-	
-	static class GolrEnvelope<T> {
-		GolrResponseHeader responseHeader;
-		GolrResponse<T> response;
-	}
-	
-	static class GolrResponseHeader {
-		String status;
-		String QTime;
-		Object params;
+
+	static class GolrIndexEnvelope {
+		GolrIndex index;
 	}
-	
-	static class GolrResponse<T> {
-		int numFound;
-		int start;
-		T[] docs;
+
+	static class GolrIndex {
+		String version;
+		String lastModified;
 	}
 	
 }
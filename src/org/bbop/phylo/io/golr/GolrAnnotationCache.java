@@ -0,0 +1,681 @@
+package org.bbop.phylo.io.golr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.io.golr.RetrieveGolrAnnotations.GolrAnnotationDocument;
+import org.bbop.phylo.util.FileUtil;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Keeps the annotation documents that GOlr returned for each search on local disk,
+ * so that the next run only has to ask GOlr about the genes it hasn't seen lately.
+ *
+ * The documents are appended to a data file, and an index file records where each search's
+ * documents start, how long they are and when they were fetched.
+ * Only the index is read when the cache is opened, a lookup is then a single read from the data file.
+ * Both files carry the GOlr index version they were filled from,
+ * and are emptied as soon as GOlr reports a different one.
+ *
+ * Several processes (the shards of a run) may share the directory. Opening, appending, compacting
+ * and emptying the cache all hold a lock on a separate lock file, and the files are never rewritten
+ * in place: a compacted or emptied cache is written to new files that are renamed over the old ones.
+ * So whatever a process has open stays consistent with the index it read, and it can go on reading
+ * without the lock. Both headers carry a generation that changes with every rewrite, so that a data file
+ * is never used with an index from another generation, and a process that finds the generation changed 
+ * when it comes to append reads the new index first.
+ */
+public class GolrAnnotationCache {
+
+	/* the kinds of searches that are cached, the key includes the kind so they can't collide */
+	public static final String BIOENTITY = "bioentity";
+	public static final String SYNONYM = "synonym";
+	public static final String GENE = "gene";
+
+	private static final int MAGIC = 0x474f4c43; // GOLC
+	private static final int FORMAT = 2;
+
+	private static final String INDEX_FILE = "golr-annotations.idx";
+	private static final String DATA_FILE = "golr-annotations.dat";
+	private static final String LOCK_FILE = "golr-annotations.lock";
+	/* how much of a bulk put is gathered up before it is written out */
+	private static final int WRITE_CHUNK = 1 << 20;
+
+	private static final Logger log = Logger.getLogger(GolrAnnotationCache.class);
+
+	/* one cache per directory, shared by all of the families being touched up */
+	private static final Map<File, GolrAnnotationCache> caches = new HashMap<>();
+
+	private static final Random generations = new SecureRandom();
+
+	private final File dir;
+	private final File index_file;
+	private final File data_file;
+	private final String snapshot;
+	private final long ttl_millis;
+	private final Map<String, Entry> index;
+	private RandomAccessFile lock_file;
+	private long generation;
+	private RandomAccessFile data;
+	private DataOutputStream index_out;
+
+	private static class Entry {
+		private final long offset;
+		private final int length;
+		private final long fetched;
+
+		private Entry(long offset, int length, long fetched) {
+			this.offset = offset;
+			this.length = length;
+			this.fetched = fetched;
+		}
+	}
+
+	/*
+	 * What the start of either file says
+	 */
+	private static class Header {
+		private final long generation;
+		private final String snapshot;
+
+		private Header(long generation, String snapshot) {
+			this.generation = generation;
+			this.snapshot = snapshot;
+		}
+	}
+
+	/**
+	 * @param dir where the cache files are kept
+	 * @param snapshot what the cached documents must have been fetched from, such as the GOlr index version
+	 * @param ttl_millis how long a search's documents may be used for before they are fetched again
+	 * @return the cache, emptied first if it was filled from a different snapshot
+	 */
+	public static synchronized GolrAnnotationCache open(File dir, String snapshot, long ttl_millis) throws IOException {
+		GolrAnnotationCache cache = caches.get(dir);
+		if (cache != null) {
+			if (cache.snapshot.equals(snapshot) && cache.ttl_millis == ttl_millis) {
+				return cache;
+			}
+			cache.close();
+			caches.remove(dir);
+		}
+		cache = new GolrAnnotationCache(dir, snapshot, ttl_millis);
+		caches.put(dir, cache);
+		return cache;
+	}
+
+	private GolrAnnotationCache(File dir, String snapshot, long ttl_millis) throws IOException {
+		this.dir = dir;
+		this.snapshot = snapshot;
+		this.ttl_millis = ttl_millis;
+		this.index = new HashMap<>();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create the GOlr cache directory " + dir);
+		}
+		index_file = new File(dir, INDEX_FILE);
+		data_file = new File(dir, DATA_FILE);
+		lock_file = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+		try (FileLock lock = lock()) {
+			load();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		log.info(index.size() + " GOlr searches cached in " + dir);
+	}
+
+	/**
+	 * @return the documents cached for this search, or null if they aren't cached or are too old
+	 */
+	public synchronized List<GolrAnnotationDocument> get(String kind, String key) {
+		Entry entry = index.get(kind + '\t' + key);
+		if (entry == null || isExpired(entry, System.currentTimeMillis()) || data == null) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+			FileChannel channel = data.getChannel();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+					throw new EOFException();
+				}
+			}
+			buffer.flip();
+			return decode(buffer);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Unable to read the cached GOlr documents for " + key + ": " + e);
+			return null;
+		}
+	}
+
+	public synchronized void put(String kind, String key, List<GolrAnnotationDocument> documents) {
+		if (data == null) {
+			return;
+		}
+		try (FileLock lock = lock()) {
+			if (isCurrent()) {
+				append(kind, Collections.singletonMap(key, documents));
+			}
+		} catch (IOException e) {
+			log.warn("Unable to cache the GOlr documents for " + key + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Cache the documents of many searches at once, such as a whole index being built,
+	 * taking the lock and checking the files only the once
+	 */
+	public synchronized void putAll(String kind, Map<String, List<GolrAnnotationDocument>> searches) {
+		if (data == null || searches.isEmpty()) {
+			return;
+		}
+		try (FileLock lock = lock()) {
+			if (isCurrent()) {
+				append(kind, searches);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to cache the GOlr documents for " + searches.size() + " " + kind + " searches: " + e.getMessage());
+		}
+	}
+
+	public synchronized boolean contains(String kind, String key) {
+		Entry entry = index.get(kind + '\t' + key);
+		return entry != null && !isExpired(entry, System.currentTimeMillis());
+	}
+
+	/**
+	 * Read the index again, to pick up what other processes have added since it was opened
+	 */
+	public synchronized void refresh() throws IOException {
+		try (FileLock lock = lock()) {
+			load();
+		}
+	}
+
+	/**
+	 * Drop everything that has been cached so far, keeping the snapshot
+	 */
+	public synchronized void clear() throws IOException {
+		try (FileLock lock = lock()) {
+			closeFiles();
+			index.clear();
+			reset();
+			openFiles();
+		}
+	}
+
+	public synchronized void close() {
+		closeFiles();
+		try {
+			if (lock_file != null) {
+				lock_file.close();
+			}
+		} catch (IOException e) {
+			log.warn("Problem closing the GOlr cache: " + e.getMessage());
+		}
+		lock_file = null;
+	}
+
+	private void closeFiles() {
+		try {
+			if (index_out != null) {
+				index_out.close();
+			}
+			if (data != null) {
+				data.close();
+			}
+		} catch (IOException e) {
+			log.warn("Problem closing the GOlr cache: " + e.getMessage());
+		}
+		index_out = null;
+		data = null;
+	}
+
+	private void openFiles() throws IOException {
+		data = new RandomAccessFile(data_file, "rw");
+		index_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index_file, true)));
+	}
+
+	/*
+	 * Keeps out the other processes, the threads of this one are already kept out by synchronized
+	 */
+	private FileLock lock() throws IOException {
+		if (lock_file == null) {
+			throw new IOException("The GOlr cache in " + dir + " is closed");
+		}
+		return lock_file.getChannel().lock();
+	}
+
+	/*
+	 * With the lock held: read the index, then start afresh or compact, and open the files to append to
+	 */
+	private void load() throws IOException {
+		closeFiles();
+		index.clear();
+		long index_end = readIndex();
+		if (index_end < 0) {
+			log.info("Starting a new GOlr cache in " + dir + " for " + snapshot);
+			index.clear();
+			reset();
+		} else {
+			compact(index_end);
+		}
+		openFiles();
+	}
+
+	/*
+	 * With the lock held: make sure the files are still the ones this cache is appending to
+	 * @return false if another process has moved the cache on to another snapshot
+	 */
+	private boolean isCurrent() throws IOException {
+		Header current = readHeader(index_file);
+		if (current == null || current.generation != generation) {
+			if (current != null && !snapshot.equals(current.snapshot)) {
+				/* leave the cache to whoever has moved it on to another GOlr index */
+				log.info("The GOlr cache in " + dir + " is now for " + current.snapshot + ", no more caching for " + snapshot);
+				closeFiles();
+				return false;
+			}
+			/* another process has compacted or emptied the cache, carry on with the new files */
+			load();
+		}
+		return true;
+	}
+
+	/*
+	 * With the lock held: the documents go into the data file a chunk at a time,
+	 * and each chunk's entries are only added to the index once the chunk is written
+	 */
+	private void append(String kind, Map<String, List<GolrAnnotationDocument>> searches) throws IOException {
+		long now = System.currentTimeMillis();
+		long offset = data.length();
+		data.seek(offset);
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		Map<String, Entry> pending = new LinkedHashMap<>();
+		for (Map.Entry<String, List<GolrAnnotationDocument>> search : searches.entrySet()) {
+			byte [] bytes = encode(search.getValue());
+			chunk.write(bytes);
+			pending.put(kind + '\t' + search.getKey(), new Entry(offset, bytes.length, now));
+			offset += bytes.length;
+			if (chunk.size() >= WRITE_CHUNK) {
+				appendChunk(chunk, pending);
+			}
+		}
+		appendChunk(chunk, pending);
+		index_out.flush();
+	}
+
+	private void appendChunk(ByteArrayOutputStream chunk, Map<String, Entry> pending) throws IOException {
+		data.write(chunk.toByteArray());
+		for (Map.Entry<String, Entry> item : pending.entrySet()) {
+			writeEntry(index_out, item.getKey(), item.getValue());
+		}
+		index.putAll(pending);
+		chunk.reset();
+		pending.clear();
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return ttl_millis > 0 && now - entry.fetched > ttl_millis;
+	}
+
+	/*
+	 * Read the index, a later entry for the same search replaces an earlier one
+	 * @return where the last complete entry ends, or -1 if the files can't be used with this snapshot
+	 */
+	private long readIndex() {
+		if (!index_file.isFile() || !data_file.isFile()) {
+			return -1;
+		}
+		try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(index_file)));
+				DataInputStream data_in = new DataInputStream(new FileInputStream(data_file))) {
+			DataInputStream in = new DataInputStream(counter);
+			Header data_header = readHeader(data_in);
+			Header index_header = readHeader(in);
+			/* a data file of another generation, say if a compaction was cut short between its two renames */
+			if (data_header == null || index_header == null || data_header.generation != index_header.generation ||
+					!snapshot.equals(index_header.snapshot) || !snapshot.equals(data_header.snapshot)) {
+				return -1;
+			}
+			generation = index_header.generation;
+			long data_length = data_file.length();
+			long end = counter.getCount();
+			while (true) {
+				String key;
+				Entry entry;
+				try {
+					key = in.readUTF();
+					entry = new Entry(in.readLong(), in.readInt(), in.readLong());
+				} catch (EOFException e) {
+					/* nothing more, or an entry that was cut short when a run was killed */
+					break;
+				}
+				if (entry.offset + entry.length > data_length) {
+					break;
+				}
+				index.put(key, entry);
+				end = counter.getCount();
+			}
+			return end;
+		} catch (IOException e) {
+			log.warn("Unable to read the GOlr cache index " + index_file + ": " + e.getMessage());
+			return -1;
+		}
+	}
+
+	private static Header readHeader(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return readHeader(in);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * @return null if this isn't a cache file of the current format
+	 */
+	private static Header readHeader(DataInputStream in) throws IOException {
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+				return null;
+			}
+			long generation = in.readLong();
+			return new Header(generation, in.readUTF());
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT);
+		out.writeLong(generation);
+		out.writeUTF(snapshot);
+	}
+
+	/*
+	 * Empty files of a new generation take the place of the old ones
+	 */
+	private void reset() throws IOException {
+		generation = generations.nextLong();
+		File index_tmp = new File(dir, INDEX_FILE + ".tmp");
+		File data_tmp = new File(dir, DATA_FILE + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(data_tmp))) {
+			writeHeader(out);
+		}
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(index_tmp))) {
+			writeHeader(out);
+		}
+		replace(index_tmp, data_tmp);
+	}
+
+	/*
+	 * The data file goes first, should the second rename not happen the generations won't match
+	 */
+	private void replace(File index_tmp, File data_tmp) throws IOException {
+		FileUtil.replace(data_tmp, data_file);
+		FileUtil.replace(index_tmp, index_file);
+	}
+
+	private static void writeEntry(DataOutputStream out, String key, Entry entry) throws IOException {
+		out.writeUTF(key);
+		out.writeLong(entry.offset);
+		out.writeInt(entry.length);
+		out.writeLong(entry.fetched);
+	}
+
+	/*
+	 * The data file only ever grows, so once most of it is replaced or expired documents
+	 * copy what is still good into fresh files
+	 */
+	private void compact(long index_end) throws IOException {
+		long now = System.currentTimeMillis();
+		long live = 0;
+		for (Entry entry : index.values()) {
+			if (!isExpired(entry, now)) {
+				live += entry.length;
+			}
+		}
+		long length = data_file.length();
+		if (length - live < (1 << 20) || length < 2 * live) {
+			if (index_end < index_file.length()) {
+				/* drop the partial entry at the end, so that new entries can be read back */
+				try (RandomAccessFile raf = new RandomAccessFile(index_file, "rw")) {
+					raf.setLength(index_end);
+				}
+			}
+			return;
+		}
+		generation = generations.nextLong();
+		File index_tmp = new File(dir, INDEX_FILE + ".tmp");
+		File data_tmp = new File(dir, DATA_FILE + ".tmp");
+		Map<String, Entry> kept = new HashMap<>();
+		try (RandomAccessFile in = new RandomAccessFile(data_file, "r");
+				DataOutputStream data_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data_tmp)));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index_tmp)))) {
+			writeHeader(data_out);
+			writeHeader(out);
+			long offset = data_out.size();
+			for (Map.Entry<String, Entry> item : index.entrySet()) {
+				Entry entry = item.getValue();
+				if (isExpired(entry, now)) {
+					continue;
+				}
+				byte [] bytes = new byte[entry.length];
+				in.seek(entry.offset);
+				in.readFully(bytes);
+				data_out.write(bytes);
+				Entry moved = new Entry(offset, entry.length, entry.fetched);
+				writeEntry(out, item.getKey(), moved);
+				kept.put(item.getKey(), moved);
+				offset += entry.length;
+			}
+		}
+		replace(index_tmp, data_tmp);
+		log.info("Compacted the GOlr cache from " + length + " to " + data_file.length() + " bytes");
+		index.clear();
+		index.putAll(kept);
+	}
+
+	/*
+	 * The documents of one search share most of their strings (the gene, its taxon, its synonyms ...)
+	 * so each string is written once and the documents refer to it by its position
+	 */
+	static byte [] encode(List<GolrAnnotationDocument> documents) throws IOException {
+		Map<String, Integer> positions = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		List<int []> rows = new ArrayList<>();
+		for (GolrAnnotationDocument document : documents) {
+			String [] scalars = getScalars(document);
+			List<List<String>> lists = getLists(document);
+			List<Integer> row = new ArrayList<>();
+			for (String value : scalars) {
+				row.add(position(value, positions, strings));
+			}
+			for (List<String> values : lists) {
+				row.add(values == null ? 0 : values.size() + 1);
+				if (values != null) {
+					for (String value : values) {
+						row.add(position(value, positions, strings));
+					}
+				}
+			}
+			int [] ints = new int[row.size()];
+			for (int i = 0; i < ints.length; i++) {
+				ints[i] = row.get(i);
+			}
+			rows.add(ints);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeVarint(out, strings.size());
+		for (String value : strings) {
+			byte [] utf = value.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, utf.length);
+			out.write(utf);
+		}
+		writeVarint(out, rows.size());
+		for (int [] row : rows) {
+			for (int value : row) {
+				writeVarint(out, value);
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static List<GolrAnnotationDocument> decode(ByteBuffer buffer) {
+		String [] strings = new String[readVarint(buffer)];
+		for (int i = 0; i < strings.length; i++) {
+			byte [] utf = new byte[readVarint(buffer)];
+			buffer.get(utf);
+			strings[i] = new String(utf, StandardCharsets.UTF_8);
+		}
+		int count = readVarint(buffer);
+		List<GolrAnnotationDocument> documents = new ArrayList<>(count);
+		for (int d = 0; d < count; d++) {
+			String [] scalars = new String[SCALAR_FIELDS];
+			for (int i = 0; i < scalars.length; i++) {
+				scalars[i] = string(readVarint(buffer), strings);
+			}
+			List<List<String>> lists = new ArrayList<>(LIST_FIELDS);
+			for (int i = 0; i < LIST_FIELDS; i++) {
+				int size = readVarint(buffer) - 1;
+				List<String> values = null;
+				if (size >= 0) {
+					values = new ArrayList<>(size);
+					for (int j = 0; j < size; j++) {
+						values.add(string(readVarint(buffer), strings));
+					}
+				}
+				lists.add(values);
+			}
+			GolrAnnotationDocument document = new GolrAnnotationDocument();
+			setFields(document, scalars, lists);
+			documents.add(document);
+		}
+		return documents;
+	}
+
+	/* 0 stands for null, any other value is one past the string's position */
+	private static int position(String value, Map<String, Integer> positions, List<String> strings) {
+		if (value == null) {
+			return 0;
+		}
+		Integer position = positions.get(value);
+		if (position == null) {
+			position = strings.size();
+			strings.add(value);
+			positions.put(value, position);
+		}
+		return position + 1;
+	}
+
+	private static String string(int position, String [] strings) {
+		return position == 0 ? null : strings[position - 1];
+	}
+
+	private static final int SCALAR_FIELDS = 17;
+	private static final int LIST_FIELDS = 5;
+
+	private static String [] getScalars(GolrAnnotationDocument document) {
+		return new String [] {
+				document.source,
+				document.bioentity,
+				document.bioentity_internal_id,
+				document.bioentity_label,
+				document.bioentity_name,
+				document.annotation_class,
+				document.annotation_class_label,
+				document.evidence_type,
+				document.aspect,
+				document.type,
+				document.taxon,
+				document.taxon_label,
+				document.date,
+				document.assigned_by,
+				document.bioentity_isoform,
+				document.panther_family,
+				document.panther_family_label
+		};
+	}
+
+	private static List<List<String>> getLists(GolrAnnotationDocument document) {
+		List<List<String>> lists = new ArrayList<>(LIST_FIELDS);
+		lists.add(document.annotation_extension_json);
+		lists.add(document.synonym);
+		lists.add(document.evidence_with);
+		lists.add(document.reference);
+		lists.add(document.qualifier);
+		return lists;
+	}
+
+	private static void setFields(GolrAnnotationDocument document, String [] scalars, List<List<String>> lists) {
+		document.source = scalars[0];
+		document.bioentity = scalars[1];
+		document.bioentity_internal_id = scalars[2];
+		document.bioentity_label = scalars[3];
+		document.bioentity_name = scalars[4];
+		document.annotation_class = scalars[5];
+		document.annotation_class_label = scalars[6];
+		document.evidence_type = scalars[7];
+		document.aspect = scalars[8];
+		document.type = scalars[9];
+		document.taxon = scalars[10];
+		document.taxon_label = scalars[11];
+		document.date = scalars[12];
+		document.assigned_by = scalars[13];
+		document.bioentity_isoform = scalars[14];
+		document.panther_family = scalars[15];
+		document.panther_family_label = scalars[16];
+		document.annotation_extension_json = lists.get(0);
+		document.synonym = lists.get(1);
+		document.evidence_with = lists.get(2);
+		document.reference = lists.get(3);
+		document.qualifier = lists.get(4);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
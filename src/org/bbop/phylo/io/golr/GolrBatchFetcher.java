@@ -0,0 +1,175 @@
+package org.bbop.phylo.io.golr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.io.golr.RetrieveGolrAnnotations.GolrAnnotationDocument;
+import org.bbop.phylo.model.FamilyContext;
+
+/**
+ * Fetches the annotations for a long list of bioentity ids from GOlr,
+ * several batches of ids at a time.
+ *
+ * The size of each new batch is adjusted to what the previous batches cost:
+ * batches that come back slowly, or with many documents, shrink the next ones
+ * and quick, small responses let them grow.
+ * The ids are always cut into consecutive runs, and the documents are handed back
+ * in the order of the ids, whichever request happened to finish first.
+ */
+public class GolrBatchFetcher {
+
+	private static final Logger log = Logger.getLogger(GolrBatchFetcher.class);
+
+	static int INITIAL_BATCH_SIZE = 100;
+	static int MIN_BATCH_SIZE = 10;
+	/* every id goes into the request URL, so keep well below the usual 8K limit on a request line */
+	static int MAX_BATCH_SIZE = 200;
+	/* what one batch should ideally cost, in wall clock time and in documents returned */
+	static long TARGET_MILLIS = 4000;
+	static int TARGET_DOCUMENTS = 5000;
+
+	private final RetrieveGolrAnnotations retriever;
+	private final int in_flight;
+	private final boolean noIEAs;
+
+	private int batch_size;
+
+	/**
+	 * @param retriever shared by all of the requests, it must not keep any per request state
+	 * @param in_flight the most batch requests that may be waiting on the server at once
+	 * @param noIEAs leave out the electronic annotations
+	 */
+	public GolrBatchFetcher(RetrieveGolrAnnotations retriever, int in_flight, boolean noIEAs) {
+		this.retriever = retriever;
+		this.in_flight = Math.max(1, in_flight);
+		this.noIEAs = noIEAs;
+		this.batch_size = INITIAL_BATCH_SIZE;
+	}
+
+	/**
+	 * @param ids of the bioentities, in the order the results should follow
+	 * @return the documents for each of the ids, in the order of the ids, with an empty list for those GOlr doesn't know
+	 * @throws IOException if any of the batches could not be retrieved
+	 */
+	public Map<String, List<GolrAnnotationDocument>> fetch(List<String> ids) throws IOException {
+		List<Batch> batches = new ArrayList<>();
+		if (ids.isEmpty()) {
+			return new LinkedHashMap<>();
+		}
+		final FamilyContext context = FamilyContext.current();
+		ExecutorService pool = Executors.newFixedThreadPool(in_flight, new FetcherThreads());
+		CompletionService<Batch> completion = new ExecutorCompletionService<>(pool);
+		int position = 0;
+		int outstanding = 0;
+		try {
+			while (position < ids.size() || outstanding > 0) {
+				while (outstanding < in_flight && position < ids.size()) {
+					int limit = Math.min(ids.size(), position + batch_size);
+					final Batch batch = new Batch(ids.subList(position, limit));
+					batches.add(batch);
+					completion.submit(new Callable<Batch>() {
+						@Override
+						public Batch call() throws IOException {
+							/* so that the request timings are charged to the family that asked for them */
+							FamilyContext.bind(context);
+							try {
+								batch.run();
+								return batch;
+							} finally {
+								FamilyContext.unbind();
+							}
+						}
+					});
+					position = limit;
+					outstanding++;
+				}
+				Batch done = completion.take().get();
+				outstanding--;
+				adapt(done);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for GOlr", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Problem retrieving a batch from GOlr", cause);
+		} finally {
+			pool.shutdownNow();
+		}
+		Map<String, List<GolrAnnotationDocument>> documents = new LinkedHashMap<>();
+		for (Batch batch : batches) {
+			for (String id : batch.ids) {
+				documents.put(id, new ArrayList<GolrAnnotationDocument>());
+			}
+			for (GolrAnnotationDocument document : batch.documents) {
+				List<GolrAnnotationDocument> found = documents.get(document.bioentity);
+				if (found != null) {
+					found.add(document);
+				} else {
+					log.debug("Whoa! GOlr returned " + document.bioentity + " which wasn't asked for");
+				}
+			}
+		}
+		return documents;
+	}
+
+	/*
+	 * Estimate how many ids would have met both targets, going by the batch just done,
+	 * and move half way there so that one unusual family doesn't swing the size too far
+	 */
+	private void adapt(Batch done) {
+		int ids = done.ids.size();
+		double millis_per_id = Math.max(1, done.millis) / (double) ids;
+		double documents_per_id = Math.max(1, done.documents.size()) / (double) ids;
+		double wanted = Math.min(TARGET_MILLIS / millis_per_id, TARGET_DOCUMENTS / documents_per_id);
+		int next = (int) ((batch_size + wanted) / 2);
+		next = Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, next));
+		if (next != batch_size) {
+			log.debug("GOlr batch of " + ids + " ids took " + done.millis + " ms for " + done.documents.size() +
+					" documents, next batches will have " + next);
+			batch_size = next;
+		}
+	}
+
+	private class Batch {
+		private final List<String> ids;
+		private List<GolrAnnotationDocument> documents;
+		private long millis;
+
+		private Batch(List<String> ids) {
+			this.ids = ids;
+		}
+
+		private void run() throws IOException {
+			long start = System.currentTimeMillis();
+			documents = retriever.getGolrAnnotationsForGenes(ids, noIEAs);
+			millis = System.currentTimeMillis() - start;
+		}
+	}
+
+	private static class FetcherThreads implements ThreadFactory {
+		private static final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "golr-fetcher-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
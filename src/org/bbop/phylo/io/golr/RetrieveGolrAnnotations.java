@@ -1,7 +1,7 @@
 package org.bbop.phylo.io.golr;
 
 import java.io.IOException;
-import java.net.URI;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,6 +18,8 @@ import org.bbop.phylo.model.GeneAnnotation;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 	
@@ -121,15 +123,11 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 			}
 			for(String json : document.annotation_extension_json) {
 				try {
-					GolrAnnotationExtension extension = GSON.fromJson(json, GolrAnnotationExtension.class);
-					if (extension != null && extension.relationship != null) {
+					ExtensionExpression ee = readExtension(json);
+					if (ee != null) {
 						// WARNING the Golr c16 model is lossy! There is no distinction between disjunction and conjunction in Golr-c16
 						// add all as disjunction
-						String relation = extractRelation(extension);
-						if (relation != null) {
-							ExtensionExpression ee = new ExtensionExpression(relation, extension.relationship.id);
-							expressions.add(Collections.singletonList(ee));
-						}
+						expressions.add(Collections.singletonList(ee));
 					}
 				} catch (JsonSyntaxException e) {
 					// when the ignore flag is set, the user has decided that incomplete c16 data is better than no data.
@@ -142,18 +140,80 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 		};
 	}
 	
-	private String extractRelation(GolrAnnotationExtension extension) {
-		StringBuilder sb = new StringBuilder();
-		for(GolrAnnotationExtensionRelation rel : extension.relationship.relation) {
-			if (sb.length() > 0) {
-				sb.append(" o ");
+	/*
+	 * Only the relation chain and the class are wanted from the extension,
+	 * so pick them straight out of the JSON rather than binding it to a GolrAnnotationExtension.
+	 * A property chain is written as its relations joined by " o ".
+	 */
+	private static ExtensionExpression readExtension(String json) throws JsonSyntaxException {
+		try {
+			JsonReader reader = new JsonReader(new StringReader(json));
+			if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				return null;
+			}
+			ExtensionExpression ee = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("relationship".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					StringBuilder relation = new StringBuilder();
+					String id = null;
+					reader.beginObject();
+					while (reader.hasNext()) {
+						String name = reader.nextName();
+						if ("relation".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+							reader.beginArray();
+							while (reader.hasNext()) {
+								String rel = readId(reader);
+								if (rel != null) {
+									if (relation.length() > 0) {
+										relation.append(" o ");
+									}
+									relation.append(rel);
+								}
+							}
+							reader.endArray();
+						}
+						else if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+							id = reader.nextString();
+						}
+						else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+					if (relation.length() > 0) {
+						ee = new ExtensionExpression(relation.toString(), id);
+					}
+				}
+				else {
+					reader.skipValue();
+				}
 			}
-			sb.append(rel.id);
+			reader.endObject();
+			return ee;
+		} catch (IOException | IllegalStateException e) {
+			throw new JsonSyntaxException(e);
 		}
-		if (sb.length() > 0) {
-			return sb.toString();
+	}
+	
+	private static String readId(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+		String id = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("id".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+				id = reader.nextString();
+			}
+			else {
+				reader.skipValue();
+			}
 		}
-		return null;
+		reader.endObject();
+		return id;
 	}
 	
 	public List<GolrAnnotationDocument> getGolrAnnotationsForGenes(List<String> ids) throws IOException {
@@ -216,33 +276,7 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 	}
 	
 	public List<GolrAnnotationDocument> getGolrAnnotations(List<String []> tagvalues) throws IOException {
-		JSON_INDENT_FLAG = true;
-		final URI uri = createGolrRequest(tagvalues, "annotation", 0, PAGINATION_CHUNK_SIZE);
-		final String jsonString = getJsonStringFromUri(uri);
-		final GolrResponse<GolrAnnotationDocument> response = parseGolrResponse(jsonString);
-		final List<GolrAnnotationDocument> documents = new ArrayList<GolrAnnotationDocument>(response.numFound);
-		documents.addAll(Arrays.asList(response.docs));
-		if (response.numFound > PAGINATION_CHUNK_SIZE) {
-			// fetch remaining documents
-			int start = PAGINATION_CHUNK_SIZE;
-			int end = response.numFound / PAGINATION_CHUNK_SIZE;
-			if (response.numFound % PAGINATION_CHUNK_SIZE != 0) {
-				end += 1;
-			}
-			end = end * PAGINATION_CHUNK_SIZE;
-			while (start <= end) {
-				URI uriPagination = createGolrRequest(tagvalues, "annotation", start, PAGINATION_CHUNK_SIZE);
-				String jsonStringPagination = getJsonStringFromUri(uriPagination);
-				GolrResponse<GolrAnnotationDocument> responsePagination = parseGolrResponse(jsonStringPagination);
-				documents.addAll(Arrays.asList(responsePagination.docs));
-				start += PAGINATION_CHUNK_SIZE;
-			}
-		}
-		return documents;
-	}
-	
-	private static class GolrAnnotationResponse extends GolrEnvelope<GolrAnnotationDocument> {
-		// empty
+		return getGolrDocuments(tagvalues, "annotation", GolrAnnotationDocument.class, PAGINATION_CHUNK_SIZE);
 	}
 	
 	public static class GolrAnnotationDocument {
@@ -268,6 +302,72 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 		List<String> evidence_with;
 		List<String> reference;
 		List<String> qualifier;
+
+		public String getBioentity() {
+			return bioentity;
+		}
+
+		/**
+		 * The reverse of {@link RetrieveGolrAnnotations#convert(List)}, to hold annotations that were read from a local file
+		 * 
+		 * @param entity
+		 * @param annotation or null for a document that only names the bioentity
+		 * @return the document GOlr would have returned for this annotation
+		 */
+		public static GolrAnnotationDocument of(Bioentity entity, GeneAnnotation annotation) {
+			GolrAnnotationDocument document = new GolrAnnotationDocument();
+			document.source = entity.getDb();
+			document.bioentity = entity.getId();
+			document.bioentity_label = entity.getSymbol();
+			document.bioentity_name = entity.getFullName();
+			document.taxon = entity.getNcbiTaxonId();
+			document.type = entity.getTypeCls();
+			document.synonym = entity.getSynonyms();
+			if (annotation == null) {
+				return document;
+			}
+			document.aspect = annotation.getAspect();
+			document.assigned_by = annotation.getAssignedBy();
+			document.annotation_class = annotation.getCls();
+			document.evidence_type = annotation.getShortEvidence();
+			document.bioentity_isoform = annotation.getGeneProductForm();
+			document.date = annotation.getLastUpdateDate();
+			document.reference = annotation.getReferenceIds();
+			if (annotation.getWithInfos() != null) {
+				document.evidence_with = new ArrayList<String>(annotation.getWithInfos());
+			}
+			List<String> qualifiers = new ArrayList<String>();
+			if (annotation.isNegated()) {
+				qualifiers.add("not");
+			}
+			if (annotation.isContributesTo()) {
+				qualifiers.add("contributes_to");
+			}
+			if (annotation.isIntegralTo()) {
+				qualifiers.add("integral_to");
+			}
+			if (annotation.isColocatesWith()) {
+				qualifiers.add("colocalizes_with");
+			}
+			if (annotation.isCut()) {
+				qualifiers.add("cut");
+			}
+			if (!qualifiers.isEmpty()) {
+				document.qualifier = qualifiers;
+			}
+			if (annotation.getExtensionExpressions() != null) {
+				List<String> extensions = new ArrayList<String>();
+				for (List<ExtensionExpression> expressions : annotation.getExtensionExpressions()) {
+					for (ExtensionExpression expression : expressions) {
+						extensions.add(GSON.toJson(GolrAnnotationExtension.of(expression)));
+					}
+				}
+				if (!extensions.isEmpty()) {
+					document.annotation_extension_json = extensions;
+				}
+			}
+			return document;
+		}
 		
 		static List<String> getRelevantFields() {
 			// explicit list of fields, avoid "*" retrieval of unused fields
@@ -299,6 +399,20 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 	public static class GolrAnnotationExtension {
 		
 		GolrAnnotationExtensionEntry relationship;
+
+		/* a property chain is written as its relations joined by " o ", see extractRelation */
+		static GolrAnnotationExtension of(ExtensionExpression expression) {
+			GolrAnnotationExtension extension = new GolrAnnotationExtension();
+			extension.relationship = new GolrAnnotationExtensionEntry();
+			extension.relationship.id = expression.getCls();
+			extension.relationship.relation = new ArrayList<GolrAnnotationExtensionRelation>();
+			for (String id : expression.getRelation().split(" o ")) {
+				GolrAnnotationExtensionRelation relation = new GolrAnnotationExtensionRelation();
+				relation.id = id;
+				extension.relationship.relation.add(relation);
+			}
+			return extension;
+		}
 		
 		public static class GolrAnnotationExtensionEntry {
 			List<GolrAnnotationExtensionRelation> relation; // list represents a property chain
@@ -312,7 +426,4 @@ public class RetrieveGolrAnnotations extends AbstractRetrieveGolr{
 		}
 	}
 
-	private GolrResponse<GolrAnnotationDocument> parseGolrResponse(String jsonString) throws IOException {
-		return parseGolrResponse(jsonString, GolrAnnotationResponse.class).response;
-	}
 }
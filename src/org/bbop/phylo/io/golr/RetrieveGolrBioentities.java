@@ -1,7 +1,6 @@
 package org.bbop.phylo.io.golr;
 
 import java.io.IOException;
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -38,32 +37,7 @@ public class RetrieveGolrBioentities extends AbstractRetrieveGolr {
 	}
 	
 	public List<GolrBioentityDocument> getGolrBioentities(List<String []> tagvalues) throws IOException {
-		final URI uri = createGolrRequest(tagvalues, "bioentity", 0, PAGINATION_CHUNK_SIZE);
-		final String jsonString = getJsonStringFromUri(uri);
-		final GolrResponse<GolrBioentityDocument> response = parseGolrResponse(jsonString);
-		final List<GolrBioentityDocument> documents = new ArrayList<GolrBioentityDocument>(response.numFound);
-		documents.addAll(Arrays.<GolrBioentityDocument>asList(response.docs));
-		if (response.numFound > PAGINATION_CHUNK_SIZE) {
-			// fetch remaining documents
-			int start = PAGINATION_CHUNK_SIZE;
-			int end = response.numFound / PAGINATION_CHUNK_SIZE;
-			if (response.numFound % PAGINATION_CHUNK_SIZE != 0) {
-				end += 1;
-			}
-			end = end * PAGINATION_CHUNK_SIZE;
-			while (start <= end) {
-				URI uriPagination = createGolrRequest(tagvalues, "bioentity", start, PAGINATION_CHUNK_SIZE);
-				String jsonStringPagination = getJsonStringFromUri(uriPagination);
-				GolrResponse<GolrBioentityDocument> responsePagination = parseGolrResponse(jsonStringPagination);
-				documents.addAll(Arrays.asList(responsePagination.docs));
-				start += PAGINATION_CHUNK_SIZE;
-			}
-		}
-		return documents;
-	}
-	
-	private static class GolrBioentityResponse extends GolrEnvelope<GolrBioentityDocument> {
-		// empty
+		return getGolrDocuments(tagvalues, "bioentity", GolrBioentityDocument.class, PAGINATION_CHUNK_SIZE);
 	}
 	
 	public static class GolrBioentityDocument {
@@ -94,7 +68,4 @@ public class RetrieveGolrBioentities extends AbstractRetrieveGolr {
 		}
 	}
 	
-	private GolrResponse<GolrBioentityDocument> parseGolrResponse(String jsonString) throws IOException {
-		return parseGolrResponse(jsonString, GolrBioentityResponse.class).response;
-	}
 }
@@ -1,7 +1,6 @@
 package org.bbop.phylo.io.golr;
 
 import java.io.IOException;
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -38,32 +37,7 @@ public class RetrieveGolrOntologyClass extends AbstractRetrieveGolr {
 	}
 	
 	public List<GolrOntologyClassDocument> getGolrOntologyCls(List<String []> tagvalues) throws IOException {
-		final URI uri = createGolrRequest(tagvalues, "ontology_class", 0, PAGINATION_CHUNK_SIZE);
-		final String jsonString = getJsonStringFromUri(uri);
-		final GolrResponse<GolrOntologyClassDocument> response = parseGolrResponse(jsonString);
-		final List<GolrOntologyClassDocument> documents = new ArrayList<GolrOntologyClassDocument>(response.numFound);
-		documents.addAll(Arrays.<GolrOntologyClassDocument>asList(response.docs));
-		if (response.numFound > PAGINATION_CHUNK_SIZE) {
-			// fetch remaining documents
-			int start = PAGINATION_CHUNK_SIZE;
-			int end = response.numFound / PAGINATION_CHUNK_SIZE;
-			if (response.numFound % PAGINATION_CHUNK_SIZE != 0) {
-				end += 1;
-			}
-			end = end * PAGINATION_CHUNK_SIZE;
-			while (start <= end) {
-				URI uriPagination = createGolrRequest(tagvalues, "ontology_class", start, PAGINATION_CHUNK_SIZE);
-				String jsonStringPagination = getJsonStringFromUri(uriPagination);
-				GolrResponse<GolrOntologyClassDocument> responsePagination = parseGolrResponse(jsonStringPagination);
-				documents.addAll(Arrays.asList(responsePagination.docs));
-				start += PAGINATION_CHUNK_SIZE;
-			}
-		}
-		return documents;
-	}
-	
-	private static class GolrOntologyClassResponse extends GolrEnvelope<GolrOntologyClassDocument> {
-		// empty
+		return getGolrDocuments(tagvalues, "ontology_class", GolrOntologyClassDocument.class, PAGINATION_CHUNK_SIZE);
 	}
 	
 	public static class GolrOntologyClassDocument {
@@ -108,7 +82,4 @@ public class RetrieveGolrOntologyClass extends AbstractRetrieveGolr {
 		}
 	}
 	
-	private GolrResponse<GolrOntologyClassDocument> parseGolrResponse(String jsonString) throws IOException {
-		return parseGolrResponse(jsonString, GolrOntologyClassResponse.class).response;
-	}
 }
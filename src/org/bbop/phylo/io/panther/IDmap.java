@@ -27,14 +27,10 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.util.Constant;
 
 public class IDmap {
-    /**
-     *
-     */
-    private static IDmap INSTANCE = null;
-
     private HashMap<String, Bioentity> ANidToGene;
     private HashMap<String, List<Bioentity>> seqIdtoGene;
     private HashMap<String, List<Bioentity>> DbIdtoGene;
@@ -43,15 +39,15 @@ public class IDmap {
 
     private static final Logger log = Logger.getLogger(IDmap.class);
 
-    private IDmap() {
-        // Exists only to defeat instantiation.
+    /*
+     * Each FamilyContext owns one of these, use inst() to get the one for the current family
+     */
+    public IDmap() {
+        clearGeneIDs();
     }
 
-    public static synchronized IDmap inst() {
-        if (INSTANCE == null) {
-            INSTANCE = new IDmap();
-        }
-        return INSTANCE;
+    public static IDmap inst() {
+        return FamilyContext.current().getIDmap();
     }
 
     public void clearGeneIDs() {
@@ -25,6 +25,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.bbop.phylo.model.Family;
+import org.bbop.phylo.tracking.FamilyMetrics;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.FileUtil;
 
@@ -65,7 +66,8 @@ public abstract class PantherAdapter implements PantherAdapterI {
 
 	private boolean writeData(File file_name, List<String> data) {
 		try {
-			FileUtil.writeFile(file_name, data);
+			boolean changed = FileUtil.writeFileIfChanged(file_name, data, null, null);
+			FamilyMetrics.inst().addOutput(file_name, changed);
 			return true;
 		} catch (IOException e) {
 			log.info(MSG_ERROR_WRITING_FILE + file_name);
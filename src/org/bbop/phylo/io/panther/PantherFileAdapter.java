@@ -63,7 +63,6 @@ public class PantherFileAdapter implements PantherLoadAdapterI {
 	 */
 	public boolean loadFamily(Family family, Tree tree) {
 		boolean ok;
-		System.gc();
 
 		ok = FileUtil.validPath(family_dir);
 
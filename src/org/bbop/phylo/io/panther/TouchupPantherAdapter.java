@@ -25,6 +25,7 @@ import org.bbop.phylo.config.TouchupConfig;
 import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Family;
 import org.bbop.phylo.model.Tree;
+import org.bbop.phylo.tracking.FamilyMetrics;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.TimerUtil;
 
@@ -32,31 +33,38 @@ public class TouchupPantherAdapter extends PantherAdapter {
 
 	private static Logger log = Logger.getLogger(TouchupPantherAdapter.class);
 
-	private static PantherLoadAdapterI active_adapter;
+	/*
+	 * The file adapter is specific to the family being loaded, so it can't be shared
+	 * between families (or between threads loading different families)
+	 */
+	private final PantherLoadAdapterI active_adapter;
 
 	public TouchupPantherAdapter (String family_name, boolean use_server) {
-		if (active_adapter == null) {
-			if (use_server) {
-				active_adapter = new PantherServerAdapter();
-			} else {
-				active_adapter = new PantherFileAdapter();
-				((PantherFileAdapter) active_adapter).setFamilyDir (TouchupConfig.inst().treedir, family_name);
-				((PantherFileAdapter) active_adapter).setTreeFileName("tree" + Constant.TREE_SUFFIX);
-				((PantherFileAdapter) active_adapter).setAttrFileName("attr" + Constant.TAB_SUFFIX);
-				((PantherFileAdapter) active_adapter).setMSAFileName("tree" + Constant.MIA_SUFFIX);
-				((PantherFileAdapter) active_adapter).setWtsFileName("cluster" + Constant.WTS_SUFFIX);
-			}
+		if (use_server) {
+			active_adapter = PantherServerAdapter.inst();
+		} else {
+			PantherFileAdapter file_adapter = new PantherFileAdapter();
+			file_adapter.setFamilyDir (TouchupConfig.inst().treedir, family_name);
+			file_adapter.setTreeFileName("tree" + Constant.TREE_SUFFIX);
+			file_adapter.setAttrFileName("attr" + Constant.TAB_SUFFIX);
+			file_adapter.setMSAFileName("tree" + Constant.MIA_SUFFIX);
+			file_adapter.setWtsFileName("cluster" + Constant.WTS_SUFFIX);
+			active_adapter = file_adapter;
 		}
 	}
 
 	public boolean loadFamily(Family family, Tree tree) {
 		TimerUtil timer = new TimerUtil();
 		log.info("Fetching " + family.getFamily_name() + " raw tree ");
+		long start = System.nanoTime();
 		boolean ok = active_adapter.loadFamily(family, tree);
+		FamilyMetrics.inst().addTime(FamilyMetrics.TREE_LOAD, start);
 		log.info("\tFetched " + family.getFamily_name() + " raw tree ");
 		if (ok) {		    
+			start = System.nanoTime();
 			PantherParserI parser = new TouchupPantherParser();
 			parser.parseFamily(family, tree);
+			FamilyMetrics.inst().addTime(FamilyMetrics.PANTHER_PARSE, start);
 			log.info("\tParsed " + family.getFamily_name() + ": " + timer.reportElapsedTime());
 		}
 		log.info("Loaded " + family.getFamily_name() + ": " + timer.reportElapsedTime());
@@ -22,21 +22,23 @@ package org.bbop.phylo.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.util.List;
 
 import org.bbop.phylo.gaf.GafRecorder;
+import org.bbop.phylo.io.PhyloConstant;
 import org.bbop.phylo.io.panther.IDmap;
 import org.bbop.phylo.io.panther.PantherAdapterI;
 import org.bbop.phylo.io.panther.PantherParser;
 import org.bbop.phylo.io.panther.PantherParserI;
 import org.bbop.phylo.io.writer.PhylogenyWriter;
+import org.bbop.phylo.tracking.FamilyMetrics;
 import org.bbop.phylo.tracking.LogAction;
 import org.bbop.phylo.tracking.LogAlert;
 import org.bbop.phylo.tracking.LogUtil;
 import org.bbop.phylo.tracking.Logger;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.FileUtil;
-import org.bbop.phylo.util.OWLutil;
 
 public class Family implements Serializable {
 
@@ -80,8 +82,6 @@ public class Family implements Serializable {
 		} else {
 			setFamily_name(null);
 		}
-		// Force garbage collection after a new book is opened
-		System.gc();
 		return (got_tree);
 	}
 
@@ -136,7 +136,11 @@ public class Family implements Serializable {
 			File phyloxml_file = new File(family_dir, family_name + Constant.PHYLOXML_SUFFIX);
 			PhylogenyWriter w = new PhylogenyWriter();
 			try {
-				w.toPhyloXML( phyloxml_file, this, getTree(), 0 );
+				/* render it first and only replace the file if the tree has changed */
+				StringWriter rendered = new StringWriter();
+				w.toPhyloXML( rendered, this, getTree(), 0 );
+				boolean changed = FileUtil.writeIfChanged(phyloxml_file, rendered.toString().getBytes(PhyloConstant.UTF_8), null, null);
+				FamilyMetrics.inst().addOutput(phyloxml_file, changed);
 			} catch (IOException e) {
 				ok = false;
 			}
@@ -183,9 +187,7 @@ public class Family implements Serializable {
 		IDmap.inst().clearGeneIDs();
 		LogAction.inst().clearLog();
 		LogAlert.clearLog();
-		OWLutil.inst().clearTerms();
 		GafRecorder.inst().clearChallenges();
-		System.gc();
 	}
 
 	public String getIdentifier() {
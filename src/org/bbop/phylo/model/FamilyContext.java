@@ -0,0 +1,138 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.bbop.phylo.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bbop.phylo.annotate.SubtreeEvidence;
+import org.bbop.phylo.gaf.GafRecorder;
+import org.bbop.phylo.io.panther.IDmap;
+import org.bbop.phylo.tracking.FamilyMetrics;
+import org.bbop.phylo.tracking.LogAction;
+import org.bbop.phylo.tracking.LogAlert;
+import org.bbop.phylo.util.TermMatrix;
+
+/**
+ * All of the bookkeeping that belongs to the one family currently being worked on:
+ * the ID maps, the action log, the alerts, the curator's notes and history, the GAF recorder
+ * and the timings of the touchup.
+ *
+ * PAINT and a sequential touchup simply use the default context.
+ * When several families are touched up at once each worker thread binds its own context
+ * so that IDmap.inst(), LogAction.inst() etc. never see another family's nodes.
+ * The ontology and the taxonomy are not held here, they are shared (read-only) by everyone.
+ */
+public class FamilyContext {
+
+	private static final FamilyContext default_context = new FamilyContext();
+
+	private static final ThreadLocal<FamilyContext> thread_context = new ThreadLocal<>();
+
+	private final IDmap id_map;
+	private final LogAction log_action;
+	private final LogAlert log_alert;
+	private final GafRecorder gaf_recorder;
+	private List<String> notes;
+	private final List<String> history;
+	private final FamilyMetrics metrics;
+	private TermMatrix term_matrix;
+	private SubtreeEvidence subtree_evidence;
+
+	public FamilyContext() {
+		id_map = new IDmap();
+		log_action = new LogAction();
+		log_alert = new LogAlert();
+		gaf_recorder = new GafRecorder();
+		notes = new ArrayList<>();
+		history = new ArrayList<>();
+		metrics = new FamilyMetrics();
+	}
+
+	/**
+	 * @return the context bound to the calling thread, or the default (shared) context if none is bound
+	 */
+	public static FamilyContext current() {
+		FamilyContext context = thread_context.get();
+		return context != null ? context : default_context;
+	}
+
+	public static void bind(FamilyContext context) {
+		thread_context.set(context);
+	}
+
+	public static void unbind() {
+		thread_context.remove();
+	}
+
+	public IDmap getIDmap() {
+		return id_map;
+	}
+
+	public LogAction getLogAction() {
+		return log_action;
+	}
+
+	public LogAlert getLogAlert() {
+		return log_alert;
+	}
+
+	public GafRecorder getGafRecorder() {
+		return gaf_recorder;
+	}
+
+	public List<String> getNotes() {
+		return notes;
+	}
+
+	public void setNotes(List<String> notes) {
+		this.notes = notes != null ? notes : new ArrayList<String>();
+	}
+
+	public List<String> getHistory() {
+		return history;
+	}
+
+	public FamilyMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * The subsumption between the family's terms, only there while its GAF is being propagated
+	 */
+	public TermMatrix getTermMatrix() {
+		return term_matrix;
+	}
+
+	public void setTermMatrix(TermMatrix term_matrix) {
+		this.term_matrix = term_matrix;
+	}
+
+	/*
+	 * The experimental terms in each node's subtree, also only there while the GAF is being propagated
+	 */
+	public SubtreeEvidence getSubtreeEvidence() {
+		return subtree_evidence;
+	}
+
+	public void setSubtreeEvidence(SubtreeEvidence subtree_evidence) {
+		this.subtree_evidence = subtree_evidence;
+	}
+}
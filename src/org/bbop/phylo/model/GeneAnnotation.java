@@ -9,6 +9,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.bbop.phylo.gaf.parser.AnnotationSource;
 import org.bbop.phylo.gaf.parser.BuilderTools;
 import org.bbop.phylo.gaf.parser.ExtensionExpression;
+import org.bbop.phylo.util.OWLutil;
 
 /**
  * Representation of a gene annotation.
@@ -16,11 +17,13 @@ import org.bbop.phylo.gaf.parser.ExtensionExpression;
 public class GeneAnnotation {
 
 	private static final String DEFAULT_STRING_VALUE = "";
+	private static final int UNRESOLVED = Integer.MIN_VALUE;
 
 	private String bioentity = DEFAULT_STRING_VALUE;            // used for c1 and c2
 	private Bioentity bioentityObject = null;                    // encompass columns 1-3, 10-12
 	private String relation = DEFAULT_STRING_VALUE;            // implicit relation
 	private String cls = DEFAULT_STRING_VALUE;                    // Col. 5
+	private int cls_id = UNRESOLVED;                              // handle of cls in the ontology
 	private List<String> referenceIds = null;                    // Col. 6
 	private String ecoEvidenceCls;                                // GPAD only
 	private String shortEvidence = DEFAULT_STRING_VALUE;        // Col. 7
@@ -150,6 +153,7 @@ public class GeneAnnotation {
 		this.setDirectNot(ann.is_DirectNot);
 		this.setDirectMRC(ann.is_MRC);
 		this.cls = ann.cls;
+		this.cls_id = ann.cls_id;
 		this.referenceIds = copy(ann.referenceIds);
 		this.shortEvidence = ann.shortEvidence;
 		this.ecoEvidenceCls = ann.ecoEvidenceCls;
@@ -209,9 +213,27 @@ public class GeneAnnotation {
 
 	public void setCls(String cls) {
 		this.cls = cls;
+		this.cls_id = UNRESOLVED;
 		setChanged();
 	}
 
+	/*
+	 * The term as an int handle into the ontology (see OWLutil.getTermId), looked up the first time it's asked for.
+	 * Once it is known the id string is swapped for the ontology's own copy,
+	 * so all the annotations to a term share one string.
+	 */
+	public int getClsId() {
+		if (cls_id == UNRESOLVED) {
+			OWLutil owl = OWLutil.inst();
+			int id = owl.getTermId(cls);
+			if (id >= 0) {
+				cls = owl.getTerm(id);
+			}
+			cls_id = id;
+		}
+		return cls_id;
+	}
+
 	public List<String> getReferenceIds() {
 		return referenceIds;
 	}
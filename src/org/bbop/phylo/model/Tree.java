@@ -43,7 +43,8 @@ public class Tree extends BioentityDocument implements Serializable {
 	private List<Bioentity> terminusNodes = null; // only the terminal nodes (i.e. leaves, collapsed or pruned stubs)
 
 	/*
-	 * For ordering operations on the tree
+	 * For ordering operations on the tree. 
+	 * Only a display needs these, so they are left null until first asked for
 	 */
 	protected Map<Bioentity, Integer> descendent_count;
 	protected int species_count;
@@ -76,15 +77,36 @@ public class Tree extends BioentityDocument implements Serializable {
 		}
 		root = node;
 
-		descendent_count = new HashMap<Bioentity, Integer>();
-		species_index = new HashMap<Bioentity, Integer>();
+		descendent_count = null;
+		species_index = null;
 		species_count = 0;
-		initSortGuides(root);
 
 		addChildNodesInOrder(root, bioentities);
-		currentNodes = new ArrayList<>();
-		terminusNodes = new ArrayList<>();
-		initCurrentNodes();
+		currentNodes = null;
+		terminusNodes = null;
+	}
+
+	protected Map<Bioentity, Integer> getDescendentCount() {
+		if (descendent_count == null) {
+			initSortGuides();
+		}
+		return descendent_count;
+	}
+
+	protected Map<Bioentity, Integer> getSpeciesIndex() {
+		if (species_index == null) {
+			initSortGuides();
+		}
+		return species_index;
+	}
+
+	private void initSortGuides() {
+		descendent_count = new HashMap<Bioentity, Integer>();
+		species_index = new HashMap<Bioentity, Integer>();
+		species_count = 0;
+		if (root != null) {
+			initSortGuides(root);
+		}
 	}
 
 	// Creation of nodes in vector
@@ -131,7 +153,7 @@ public class Tree extends BioentityDocument implements Serializable {
 	}
 
 	/*
-	 * This is only called during initialization of a new family
+	 * This is only called the first time the sort guides are needed
 	 */
 	private int initSortGuides(Bioentity node) {
 		int count = 0;
@@ -232,7 +254,7 @@ public class Tree extends BioentityDocument implements Serializable {
 	public Bioentity getTopLeafNode(Bioentity node) {
 		Bioentity top_leaf = null;
 		if (node != null) {
-			if (!terminusNodes.contains(node) && node.getChildren() != null) {
+			if (!getTerminusNodes().contains(node) && node.getChildren() != null) {
 				top_leaf = getTopLeafNode(node.getChildren().get(0));
 			} else {
 				top_leaf = (Bioentity) node;
@@ -244,7 +266,7 @@ public class Tree extends BioentityDocument implements Serializable {
 	public Bioentity getBottomLeafNode(Bioentity node) {
 		Bioentity bottom_leaf = null;
 		if (node != null) {
-			if (!terminusNodes.contains(node) && node.getChildren() != null) {
+			if (!getTerminusNodes().contains(node) && node.getChildren() != null) {
 				List<Bioentity> children = node.getChildren();
 				bottom_leaf = getBottomLeafNode(children.get(children.size() - 1));
 			} else {
@@ -257,6 +279,10 @@ public class Tree extends BioentityDocument implements Serializable {
 
 	// Method to set number of leaves in tree
 	public void initCurrentNodes() {
+		if (currentNodes == null) {
+			currentNodes = new ArrayList<>();
+			terminusNodes = new ArrayList<>();
+		}
 		currentNodes.clear();
 		terminusNodes.clear();
 		addChildNodesInOrder(getCurrentRoot(), currentNodes);
@@ -335,11 +361,20 @@ public class Tree extends BioentityDocument implements Serializable {
 		return bioentities;
 	}
 
+	/*
+	 * The visible nodes are only worked out when a display first asks for them
+	 */
 	public List<Bioentity> getTerminusNodes() {
+		if (terminusNodes == null) {
+			initCurrentNodes();
+		}
 		return terminusNodes;
 	}
 
 	public List<Bioentity> getCurrentNodes() {
+		if (currentNodes == null) {
+			initCurrentNodes();
+		}
 		return currentNodes;
 	}
 
@@ -40,15 +40,16 @@ public class TaxonFinder {
 	private static final Map<String, Species> taxa2IDs = new HashMap<String, Species>();
 	private static final Map<String, Species> IDs2taxa = new HashMap<String, Species>();
 
+	/* set once both mappings are complete, which also publishes them to the other threads */
+	private static volatile boolean loaded = false;
+
 	private static final String NCBI_TAXA = "ncbi_taxa_ids.txt";
 	private static final String UNIPROT_TAXA = "speclist.txt";
 	
 	private static final Logger log = Logger.getLogger(TaxonFinder.class);
 
 	public static String getTaxonID(String species_name) {
-		if (taxa2IDs == null || taxa2IDs.isEmpty()) {
-			loadTaxaMapping();
-		}
+		preload();
 		Species taxon = null;
 		if (species_name != null && species_name.length() > 0) {
 			if (!species_name.equals("root"))
@@ -106,7 +107,30 @@ public class TaxonFinder {
 		}
 	}
 
-	private static void loadTaxaMapping() {
+	/**
+	 * Read in the taxa once, before the families are touched up.
+	 * After this the mappings are only ever read, so they may be shared between threads
+	 * 
+	 * @throws IllegalStateException if either of the taxa files could not be read, 
+	 * rather than letting every family go on without species
+	 */
+	public static void preload() {
+		/* only the first lookups need to queue up for the lock, the rest just read the flag */
+		if (!loaded) {
+			synchronized (TaxonFinder.class) {
+				if (!loaded) {
+					if (!loadTaxaMapping()) {
+						taxa2IDs.clear();
+						IDs2taxa.clear();
+						throw new IllegalStateException("Unable to load the taxa mapping from " + UNIPROT_TAXA + " and " + NCBI_TAXA);
+					}
+					loaded = true;
+				}
+			}
+		}
+	}
+
+	private static boolean loadTaxaMapping() {
 		Species ancestor = new Species();
 		ancestor.setLabel("LUCA");
 		ancestor.setNcbi_taxon_id("1");
@@ -120,11 +144,12 @@ public class TaxonFinder {
 		bac.setSpecies("Bacillus");
 		taxa2IDs.put(bac.getSpecies().toLowerCase(), bac);
 		IDs2taxa.put(bac.getNcbi_taxon_id(), bac);
-		loadUniProtTaxa();
-		loadNCBITaxa();
+		boolean uniprot = loadUniProtTaxa();
+		boolean ncbi = loadNCBITaxa();
+		return uniprot && ncbi;
 	}
 
-	private static void loadNCBITaxa() {
+	private static boolean loadNCBITaxa() {
 		ResourceLoader loader = ResourceLoader.inst();
 		BufferedReader reader = loader.loadResource(NCBI_TAXA+".gz", true);
 		if (reader == null) {
@@ -159,10 +184,12 @@ public class TaxonFinder {
 					id_pair = reader.readLine();
 				}
 				reader.close();
+				return true;
 			} catch (Exception e) {
 				log.error("Unable to read " + NCBI_TAXA + " exception=" + e.getMessage());
 			}
 		}
+		return false;
 	}
 
 	private static Species getSpecies(String taxon_id, String name) {
@@ -181,7 +208,7 @@ public class TaxonFinder {
         return str.matches("-?\\d+(\\.\\d+)?");  //match a number with optional '-' and decimal.
     }
 
-    private static void loadUniProtTaxa() {
+    private static boolean loadUniProtTaxa() {
 		ResourceLoader loader = ResourceLoader.inst();
 		BufferedReader reader = loader.loadResource(UNIPROT_TAXA);
 		if (reader != null) {
@@ -214,10 +241,12 @@ public class TaxonFinder {
 					line = reader.readLine();
 				}
 				reader.close();
+				return true;
 			} catch (Exception e) {
 				log.error("Unable to read " + UNIPROT_TAXA + " exception=" + e.getMessage());
 			}
 		}
+		return false;
 	}
 
 	private static String speciesNameHack(String name) {
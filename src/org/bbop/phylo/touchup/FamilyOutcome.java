@@ -0,0 +1,92 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.util.List;
+
+/**
+ * What became of one family during a touchup run
+ */
+public class FamilyOutcome {
+
+	public enum Status {
+		TOUCHED,
+		UNCHANGED,
+		MISSING_GAF,
+		MISSING_TREE,
+		TAXON_SERVER_DOWN,
+		GOLR_DOWN,
+		FAILED,
+		SKIPPED;
+
+		public String toString() {
+			return super.toString().toLowerCase();
+		}
+	}
+
+	private final String family_name;
+	private Status status;
+	private List<String> alerts;
+
+	public FamilyOutcome(String family_name, Status status) {
+		this.family_name = family_name;
+		this.status = status;
+	}
+
+	public String getFamilyName() {
+		return family_name;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	/*
+	 * null unless the touchup raised alerts that a curator needs to review
+	 */
+	public List<String> getAlerts() {
+		return alerts;
+	}
+
+	public void setAlerts(List<String> alerts) {
+		this.alerts = alerts;
+	}
+
+	/*
+	 * Nothing more can be done for this family until its inputs change,
+	 * anything else should be tried again
+	 */
+	public boolean isComplete() {
+		return status == Status.TOUCHED || status == Status.UNCHANGED || 
+				status == Status.MISSING_GAF || status == Status.MISSING_TREE;
+	}
+
+	/*
+	 * The servers are down, so there is no point in trying any more families
+	 */
+	public boolean isAborted() {
+		return status == Status.TAXON_SERVER_DOWN || status == Status.GOLR_DOWN;
+	}
+}
@@ -0,0 +1,123 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.config.TouchupConfig;
+import org.bbop.phylo.util.Constant;
+
+/**
+ * Decides the order in which families are touched up and how many may be held in memory at once.
+ *
+ * A family's cost is estimated up front from the size of its PANTHER tree and attribute files
+ * and of its GAF, which is far cheaper than reading them. The largest families go first, so that
+ * a few giants don't end up running on their own at the tail of a parallel run.
+ *
+ * Workers must be admitted before loading a family and release it once the family is done.
+ * Admission only succeeds while the estimated memory of the families in flight fits the budget,
+ * a family that is on its own bigger than the whole budget is admitted once everyone else is done.
+ */
+class FamilyScheduler {
+
+	private static final Logger log = Logger.getLogger(FamilyScheduler.class);
+
+	/*
+	 * Rough ratio of the heap taken by a loaded family (tree, nodes, annotations, logs) 
+	 * to the number of bytes in its input files
+	 */
+	private static final int HEAP_PER_INPUT_BYTE = 40;
+
+	private static final int MB = 1024 * 1024;
+
+	private final Map<String, Integer> costs;
+	private final int budget;
+	private final Semaphore available;
+
+	FamilyScheduler() {
+		costs = new HashMap<>();
+		int configured = TouchupConfig.inst().memory_budget;
+		if (configured > 0) {
+			budget = configured;
+		} else {
+			budget = (int) Math.max(1, Runtime.getRuntime().maxMemory() / MB * 3 / 4);
+		}
+		available = new Semaphore(budget, true);
+	}
+
+	/**
+	 * @return the families, largest first
+	 */
+	List<String> order(List<String> families) {
+		for (String family_name : families) {
+			costs.put(family_name, estimate(family_name));
+		}
+		List<String> ordered = new ArrayList<>(families);
+		Collections.sort(ordered, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int diff = costs.get(b).compareTo(costs.get(a));
+				return diff != 0 ? diff : a.compareTo(b);
+			}
+		});
+		if (!ordered.isEmpty()) {
+			log.info("Memory budget is " + budget + "MB, the largest family " + ordered.get(0) + 
+					" is estimated at " + costs.get(ordered.get(0)) + "MB");
+		}
+		return ordered;
+	}
+
+	/**
+	 * Wait until there is room in the budget for this family
+	 */
+	void admit(String family_name) throws InterruptedException {
+		available.acquire(permits(family_name));
+	}
+
+	void release(String family_name) {
+		available.release(permits(family_name));
+	}
+
+	private int permits(String family_name) {
+		Integer cost = costs.get(family_name);
+		return Math.min(budget, cost != null ? cost : 1);
+	}
+
+	/*
+	 * Estimated heap in MB, never less than 1
+	 */
+	private int estimate(String family_name) {
+		File tree_dir = new File(TouchupConfig.inst().treedir, family_name);
+		File gaf_dir = new File(TouchupConfig.inst().gafdir, family_name);
+		long bytes = new File(tree_dir, "tree" + Constant.TREE_SUFFIX).length() +
+				new File(tree_dir, "attr" + Constant.TAB_SUFFIX).length() +
+				new File(gaf_dir, family_name + Constant.GAF_SUFFIX).length();
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes * HEAP_PER_INPUT_BYTE / MB));
+	}
+}
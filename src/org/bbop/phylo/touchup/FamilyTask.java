@@ -0,0 +1,265 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.annotate.AnnotationUtil;
+import org.bbop.phylo.config.TouchupConfig;
+import org.bbop.phylo.gaf.GafPropagator;
+import org.bbop.phylo.io.panther.PantherAdapterI;
+import org.bbop.phylo.io.panther.PantherDbInfo;
+import org.bbop.phylo.io.panther.TouchupPantherAdapter;
+import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.Family;
+import org.bbop.phylo.model.FamilyContext;
+import org.bbop.phylo.model.Tree;
+import org.bbop.phylo.tracking.FamilyMetrics;
+import org.bbop.phylo.tracking.LogAlert;
+import org.bbop.phylo.tracking.LogUtil;
+import org.bbop.phylo.util.Constant;
+import org.bbop.phylo.util.FileUtil;
+import org.bbop.phylo.util.ResourceLoader;
+import org.bbop.phylo.util.TaxonChecker;
+
+/**
+ * Touching up one family, broken into the phases that it goes through.
+ *
+ * Each phase binds the family's own FamilyContext while it runs, so the phases
+ * need not all run on the same thread. Every phase says whether the family
+ * should go on to the next, once it doesn't the outcome is final.
+ */
+class FamilyTask {
+
+	private static final Logger log = Logger.getLogger(FamilyTask.class);
+
+	enum Phase {
+		LOAD, // read the tree and the GAF from disk
+		EVIDENCE, // fetch the experimental annotations from GOlr
+		PROPAGATE, // replay the curator's annotations onto the tree
+		WRITE; // save the GAF, log and phyloxml
+
+		public String toString() {
+			return super.toString().toLowerCase();
+		}
+	}
+
+	private final String family_name;
+	private final boolean use_server;
+	private final InputManifest manifest;
+	private final FamilyOutcome outcome;
+	private FamilyContext context;
+	private FamilyMetrics metrics;
+	private Family family;
+	private File family_dir;
+	private boolean admitted;
+
+	FamilyTask(String family_name, boolean use_server, InputManifest manifest) {
+		this.family_name = family_name;
+		this.use_server = use_server;
+		this.manifest = manifest;
+		this.outcome = new FamilyOutcome(family_name, FamilyOutcome.Status.MISSING_GAF);
+	}
+
+	String getFamilyName() {
+		return family_name;
+	}
+
+	FamilyOutcome getOutcome() {
+		return outcome;
+	}
+
+	/*
+	 * null if the family never got as far as being loaded
+	 */
+	FamilyMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * Whether the family currently holds a share of the scheduler's memory budget
+	 */
+	boolean isAdmitted() {
+		return admitted;
+	}
+
+	void setAdmitted(boolean admitted) {
+		this.admitted = admitted;
+	}
+
+	/**
+	 * @return true if the family should continue on to the next phase
+	 */
+	boolean perform(Phase phase) {
+		if (context == null) {
+			context = new FamilyContext();
+			metrics = context.getMetrics();
+		}
+		FamilyContext.bind(context);
+		try {
+			switch (phase) {
+			case LOAD:
+				return load();
+			case EVIDENCE:
+				return fetchEvidence();
+			case PROPAGATE:
+				return propagate();
+			case WRITE:
+				write();
+				return false;
+			default:
+				return false;
+			}
+		} catch (RuntimeException e) {
+			outcome.setStatus(FamilyOutcome.Status.FAILED);
+			release();
+			throw e;
+		} finally {
+			FamilyContext.unbind();
+		}
+	}
+
+	/*
+	 * For when the run is abandoned before this family could be finished
+	 */
+	void skip() {
+		outcome.setStatus(FamilyOutcome.Status.SKIPPED);
+		release();
+	}
+
+	private boolean load() {
+		if (manifest != null && manifest.isUnchanged(family_name)) {
+			log.info("Nothing has changed for " + family_name + " since it was last touched up");
+			outcome.setStatus(FamilyOutcome.Status.UNCHANGED);
+			return false;
+		}
+		if (!gafFileExists()) {
+			log.info("Missing GAF file for " + family_name);
+			return false;
+		}
+		family = new Family(family_name);
+		Tree tree = new Tree(family_name);
+		PantherAdapterI adapter = new TouchupPantherAdapter(family_name, use_server);
+		if (!family.fetch(tree, adapter)) {
+			log.error("Unable to load tree for " + family_name);
+			outcome.setStatus(FamilyOutcome.Status.MISSING_TREE);
+			release();
+			return false;
+		}
+		metrics.setLeafCount(tree.getLeaves().size());
+		return true;
+	}
+
+	private boolean fetchEvidence() {
+		if (!TaxonChecker.isLive()) {
+			log.error("TaxonChecker is down");
+			outcome.setStatus(FamilyOutcome.Status.TAXON_SERVER_DOWN);
+			release();
+			return false;
+		}
+		long start = System.nanoTime();
+		boolean loaded = AnnotationUtil.loadExperimental(family);
+		metrics.addTime(FamilyMetrics.GOLR_FETCH, start);
+		if (!loaded) {
+			log.error("Unable to load annotations for " + family_name);
+			outcome.setStatus(FamilyOutcome.Status.GOLR_DOWN);
+			release();
+			return false;
+		}
+		return true;
+	}
+
+	private boolean propagate() {
+		/*
+		 * The file may be null, in which case the following two methods
+		 * simply return
+		 */
+		family_dir = new File(TouchupConfig.inst().gafdir, family_name);
+
+		long start = System.nanoTime();
+		org.bbop.phylo.tracking.Logger.importUserLog(family_name, family_dir);
+
+		GafPropagator.importAnnotations(family, family_dir);
+		metrics.addTime(FamilyMetrics.PROPAGATE, start);
+
+		int annotation_count = 0;
+		for (Bioentity node : family.getTree().getBioentities()) {
+			if (node.getAnnotations() != null) {
+				annotation_count += node.getAnnotations().size();
+			}
+		}
+		metrics.setAnnotationCount(annotation_count);
+		return true;
+	}
+
+	private void write() {
+		String comment = "Updated by " + ResourceLoader.inst().loadVersion() + 
+				" on " + LogUtil.dateNow() + 
+				" using " + Constant.PANTHER_VERSION + PantherDbInfo.getVersionKey();							
+		long start = System.nanoTime();
+		family.save(family_dir, comment);
+		metrics.addTime(FamilyMetrics.GAF_WRITE, start);
+		start = System.nanoTime();
+		family.export(family_dir);
+		metrics.addTime(FamilyMetrics.PHYLOXML_EXPORT, start);
+		List<String> changed = metrics.getChangedOutputs();
+		if (changed.isEmpty()) {
+			log.info("None of the files for " + family_name + " needed rewriting");
+		} else {
+			log.info("Rewrote " + changed + " for " + family_name);
+		}
+		if (manifest != null) {
+			manifest.update(family_name);
+		}
+
+		outcome.setStatus(FamilyOutcome.Status.TOUCHED);
+		int alert_count = LogAlert.getAlertCount();
+		if (alert_count > 0)  {
+			outcome.setAlerts(LogAlert.report());
+		}
+		release();
+	}
+
+	/*
+	 * Let go of the tree and annotations as soon as the family is done with
+	 */
+	private void release() {
+		family = null;
+		context = null;
+	}
+
+	private boolean gafFileExists() {
+		File family_dir = new File(TouchupConfig.inst().gafdir, family_name);
+		boolean ok = FileUtil.validPath(family_dir);
+		if (ok) {
+			File gaf_file = new File(family_dir, family_name + Constant.GAF_SUFFIX);
+			ok = FileUtil.validFile(gaf_file);
+			if (!ok) {
+				log.info("Can't read: " + gaf_file);
+			}
+		} else {
+			log.info("Invalid path: " + family_dir);
+		}
+		return ok;
+	}
+}
@@ -0,0 +1,164 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.util.Constant;
+import org.bbop.phylo.util.FileUtil;
+
+/**
+ * Remembers what each family was last touched up from, so that an incremental run
+ * can pass over those families where nothing has changed since.
+ *
+ * A family's fingerprint is made from the digests of its PANTHER tree and attribute files,
+ * its GAF and its curation log, together with the GO release and the snapshot of experimental
+ * annotations that were used. The GAF and log are digested after they have been rewritten,
+ * so that the next run compares against what this run left behind.
+ *
+ * The manifest is a tab delimited file kept in the GAF directory, one family per line.
+ * Each shard of a sharded run keeps its own.
+ */
+public class InputManifest {
+
+	private static final Logger log = Logger.getLogger(InputManifest.class);
+
+	private static final String MANIFEST_FILE = "touchup.manifest";
+
+	private final File gaf_dir;
+	private final File tree_dir;
+	private final File manifest_file;
+	private final String go_version;
+	private final String evidence_snapshot;
+	private final Map<String, String> previous;
+	private final Map<String, String> updated;
+
+	public InputManifest(String gaf_dir, String tree_dir, Shard shard, String go_version, String evidence_snapshot) {
+		this.gaf_dir = new File(gaf_dir);
+		this.tree_dir = new File(tree_dir);
+		this.manifest_file = new File(gaf_dir, shard.name(MANIFEST_FILE));
+		this.go_version = go_version;
+		this.evidence_snapshot = evidence_snapshot;
+		previous = new HashMap<>();
+		updated = new HashMap<>();
+		load();
+	}
+
+	private void load() {
+		if (!FileUtil.validFile(manifest_file)) {
+			log.info("No previous manifest in " + gaf_dir + ", all families will be touched up");
+			return;
+		}
+		List<String> lines = FileUtil.readFile(manifest_file);
+		if (lines != null) {
+			for (String line : lines) {
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				int tab = line.indexOf(Constant.TAB);
+				if (tab > 0) {
+					previous.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+		}
+		log.info("Loaded fingerprints for " + previous.size() + " families from " + manifest_file);
+	}
+
+	/**
+	 * @return true if the family's inputs are exactly what they were the last time it was successfully touched up
+	 */
+	public boolean isUnchanged(String family_name) {
+		String fingerprint = fingerprint(family_name);
+		return fingerprint != null && fingerprint.equals(previous.get(family_name));
+	}
+
+	/**
+	 * Record the family's fingerprint, to be called once the touched up files have been saved
+	 */
+	public void update(String family_name) {
+		String fingerprint = fingerprint(family_name);
+		if (fingerprint != null) {
+			synchronized (updated) {
+				updated.put(family_name, fingerprint);
+			}
+		}
+	}
+
+	/**
+	 * Families that weren't touched up this time keep the fingerprint from their last successful run.
+	 * The manifest is written to the side and then moved into place so that an interrupted save
+	 * never leaves a partial manifest behind.
+	 */
+	public void save() {
+		Map<String, String> merged = new TreeMap<>(previous);
+		synchronized (updated) {
+			merged.putAll(updated);
+		}
+		List<String> contents = new ArrayList<>();
+		contents.add("# family\ttree\tattr\tgaf\tlog\tGO version\tevidence snapshot");
+		for (Map.Entry<String, String> entry : merged.entrySet()) {
+			contents.add(entry.getKey() + Constant.TAB + entry.getValue());
+		}
+		File tmp_file = new File(manifest_file.getPath() + ".tmp");
+		try {
+			FileUtil.writeFile(tmp_file, contents);
+			if (manifest_file.exists() && !manifest_file.delete()) {
+				throw new IOException("unable to replace " + manifest_file);
+			}
+			if (!tmp_file.renameTo(manifest_file)) {
+				throw new IOException("unable to rename " + tmp_file);
+			}
+			log.info("Saved fingerprints for " + merged.size() + " families to " + manifest_file);
+		} catch (IOException e) {
+			log.error("Unable to save manifest: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * null if any of the inputs can't be read, in which case the family is never considered unchanged
+	 */
+	private String fingerprint(String family_name) {
+		if (go_version == null || evidence_snapshot == null) {
+			return null;
+		}
+		File panther_dir = new File(tree_dir, family_name);
+		File family_dir = new File(gaf_dir, family_name);
+		String tree = FileUtil.digest(new File(panther_dir, "tree" + Constant.TREE_SUFFIX));
+		String attr = FileUtil.digest(new File(panther_dir, "attr" + Constant.TAB_SUFFIX));
+		String gaf = FileUtil.digest(new File(family_dir, family_name + Constant.GAF_SUFFIX));
+		if (tree == null || attr == null || gaf == null) {
+			return null;
+		}
+		String curation_log = FileUtil.digest(new File(family_dir, family_name + Constant.LOG_SUFFIX));
+		if (curation_log == null) {
+			curation_log = "-";
+		}
+		return tree + Constant.TAB + attr + Constant.TAB + gaf + Constant.TAB + curation_log + Constant.TAB + 
+				go_version + Constant.TAB + evidence_snapshot;
+	}
+}
@@ -0,0 +1,195 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.util.Constant;
+import org.bbop.phylo.util.FileUtil;
+
+/**
+ * An append-only record of a touchup run, kept in the GAF directory.
+ *
+ * Every family gets a line when it is started and another, with its outcome, when it is finished.
+ * Each line is flushed as it is written, so if the run dies part way through the journal still
+ * says which families were completed and a later run with --resume can pick up the rest.
+ *
+ * Each run begins with a line saying whether it is a fresh run or a resumption. A resumption
+ * takes into account everything since the most recent fresh run, so a run can be resumed
+ * as many times as it takes.
+ */
+public class RunJournal {
+
+	private static final Logger log = Logger.getLogger(RunJournal.class);
+
+	private static final String JOURNAL_FILE = "touchup.journal";
+	public static final String RETRY_FILE = "touchup.retry";
+
+	private static final String RUN = "run";
+	private static final String FRESH = "fresh";
+	private static final String RESUME = "resume";
+	private static final String START = "start";
+	private static final String FINISH = "finish";
+
+	private final File gaf_dir;
+	private final File journal_file;
+	private BufferedWriter writer;
+	private volatile int finished_count;
+
+	private final String retry_file_name;
+
+	public RunJournal(String gaf_dir, Shard shard) {
+		this.gaf_dir = new File(gaf_dir);
+		this.journal_file = new File(gaf_dir, shard.name(JOURNAL_FILE));
+		this.retry_file_name = shard.name(RETRY_FILE);
+	}
+
+	/**
+	 * @return those of the given families that the run being resumed did not complete
+	 */
+	public List<String> unfinished(List<String> families) {
+		Set<String> completed = new HashSet<>();
+		if (FileUtil.validFile(journal_file)) {
+			List<String> lines = FileUtil.readFile(journal_file);
+			for (String line : lines != null ? lines : new ArrayList<String>()) {
+				String[] fields = line.split(Constant.TAB);
+				if (fields.length < 3) {
+					continue;
+				}
+				if (fields[1].equals(RUN) && fields[2].equals(FRESH)) {
+					completed.clear();
+				} else if (fields[1].equals(FINISH) && fields.length > 3) {
+					try {
+						FamilyOutcome outcome = new FamilyOutcome(fields[2], FamilyOutcome.Status.valueOf(fields[3].toUpperCase()));
+						if (outcome.isComplete()) {
+							completed.add(fields[2]);
+						} else {
+							completed.remove(fields[2]);
+						}
+					} catch (IllegalArgumentException e) {
+						log.warn("Unrecognized outcome in journal: " + line);
+					}
+				}
+			}
+		} else {
+			log.info("No journal in " + gaf_dir + " to resume from");
+		}
+		List<String> remaining = new ArrayList<>();
+		for (String family_name : families) {
+			if (!completed.contains(family_name)) {
+				remaining.add(family_name);
+			}
+		}
+		log.info("Resuming, " + (families.size() - remaining.size()) + " families were already completed");
+		return remaining;
+	}
+
+	public synchronized void open(boolean resume, int family_count) {
+		try {
+			writer = new BufferedWriter(new FileWriter(journal_file, true));
+			write(RUN, resume ? RESUME : FRESH, Integer.toString(family_count));
+		} catch (IOException e) {
+			log.error("Unable to open run journal " + journal_file + ": " + e.getMessage());
+			writer = null;
+		}
+	}
+
+	public synchronized void started(String family_name) {
+		write(START, family_name, null);
+	}
+
+	public synchronized void finished(FamilyOutcome outcome) {
+		finished_count++;
+		write(FINISH, outcome.getFamilyName(), outcome.getStatus().toString());
+	}
+
+	public int getFinishedCount() {
+		return finished_count;
+	}
+
+	/**
+	 * Close the journal and list the families that didn't complete, this list can be given
+	 * straight back to touchup with -l
+	 */
+	public synchronized void close(List<String> families, List<FamilyOutcome> outcomes) {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Unable to close run journal: " + e.getMessage());
+			}
+			writer = null;
+		}
+		Set<String> completed = new HashSet<>();
+		for (FamilyOutcome outcome : outcomes) {
+			if (outcome.isComplete()) {
+				completed.add(outcome.getFamilyName());
+			}
+		}
+		List<String> retry = new ArrayList<>();
+		for (String family_name : families) {
+			if (!completed.contains(family_name)) {
+				retry.add(family_name);
+			}
+		}
+		File retry_file = new File(gaf_dir, retry_file_name);
+		try {
+			if (retry.isEmpty()) {
+				if (retry_file.exists()) {
+					retry_file.delete();
+				}
+			} else {
+				FileUtil.writeFile(retry_file, retry);
+				log.info(retry.size() + " families did not complete, they are listed in " + retry_file);
+			}
+		} catch (IOException e) {
+			log.error("Unable to write retry list " + retry_file + ": " + e.getMessage());
+		}
+	}
+
+	private void write(String event, String subject, String detail) {
+		if (writer == null) {
+			return;
+		}
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		String line = sdf.format(new Date()) + Constant.TAB + event + Constant.TAB + subject;
+		if (detail != null) {
+			line += Constant.TAB + detail;
+		}
+		try {
+			writer.write(line);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			log.error("Unable to write to run journal: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.bbop.phylo.tracking.LogUtil;
+import org.bbop.phylo.util.FileUtil;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * The tallies for a touchup run that go into the summary log, along with the alerts
+ * of every family that needs reviewing.
+ *
+ * A sharded run saves its summary as JSON so that the summaries of all the shards
+ * can afterwards be merged into the one log report.
+ */
+class RunSummary {
+
+	static final String SUMMARY_SUFFIX = ".summary.json";
+
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+	private int total_count;
+	private int touched_count;
+	private int family_count;
+	private int tree_count;
+	private int gaf_count;
+	private int review_count;
+	private int unchanged_count;
+	private Map<String, List<String>> alerts = new TreeMap<>();
+
+	void setTotalCount(int total_count) {
+		this.total_count = total_count;
+	}
+
+	int getTouchedCount() {
+		return touched_count;
+	}
+
+	void add(FamilyOutcome outcome) {
+		switch (outcome.getStatus()) {
+		case TOUCHED: {
+			gaf_count++;
+			tree_count++;
+			family_count++;
+			touched_count++;
+			if (outcome.getAlerts() != null) {
+				alerts.put(outcome.getFamilyName(), outcome.getAlerts());
+				review_count++;
+			}
+			break;
+		}
+		case UNCHANGED: {
+			gaf_count++;
+			tree_count++;
+			family_count++;
+			unchanged_count++;
+			break;
+		}
+		case MISSING_TREE:
+		case FAILED: {
+			gaf_count++;
+			family_count++;
+			break;
+		}
+		case MISSING_GAF: {
+			family_count++;
+			break;
+		}
+		case TAXON_SERVER_DOWN:
+		case GOLR_DOWN: {
+			gaf_count++;
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	void merge(RunSummary other) {
+		total_count += other.total_count;
+		touched_count += other.touched_count;
+		family_count += other.family_count;
+		tree_count += other.tree_count;
+		gaf_count += other.gaf_count;
+		review_count += other.review_count;
+		unchanged_count += other.unchanged_count;
+		alerts.putAll(other.alerts);
+	}
+
+	void save(File summary_file) throws IOException {
+		FileUtils.write(summary_file, GSON.toJson(this));
+	}
+
+	static RunSummary load(File summary_file) throws IOException {
+		try {
+			RunSummary summary = GSON.fromJson(FileUtils.readFileToString(summary_file), RunSummary.class);
+			if (summary == null) {
+				throw new IOException(summary_file + " is empty");
+			}
+			if (summary.alerts == null) {
+				summary.alerts = new TreeMap<>();
+			} else {
+				summary.alerts = new TreeMap<>(summary.alerts);
+			}
+			return summary;
+		} catch (JsonSyntaxException e) {
+			throw new IOException("Could not parse " + summary_file, e);
+		}
+	}
+
+	/**
+	 * Write out the log report that curators read after a run
+	 */
+	void report(File log_file, String program_name) throws IOException {
+		List<String> contents = new ArrayList<>();
+		contents.add("# " + program_name + " Log Report for " + LogUtil.dateNow());
+		contents.add("Touched up " + touched_count + " of " + total_count + " PAINT families " + 
+				(total_count - family_count) + " no longer have trees, " +
+				(family_count - gaf_count) + " are missing GAF files, and " + 
+				review_count + " need reviewing." +
+				(unchanged_count > 0 ? " " + unchanged_count + " were unchanged since they were last touched up." : ""));
+		contents.add("\n");
+		for (Map.Entry<String, List<String>> family : alerts.entrySet()) {
+			contents.add(family.getKey() +  " needs review ---\n");
+			contents.addAll(family.getValue());
+		}
+		FileUtil.writeFile(log_file, contents);
+	}
+}
@@ -0,0 +1,116 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One of N slices of the families, so that a run can be spread over several processes or hosts 
+ * sharing the same GAF and tree directories.
+ *
+ * A family belongs to a shard by a checksum of its name, so every process agrees on
+ * the split without talking to the others. The files a run keeps in the GAF directory
+ * (journal, manifest, timing report, summary) are named for the shard, so the shards 
+ * don't overwrite each other.
+ */
+class Shard {
+
+	static final Shard ALL = new Shard(1, 1);
+
+	private final int index;
+	private final int count;
+
+	/**
+	 * @param index from 1 to count
+	 */
+	Shard(int index, int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("Shard " + index + " of " + count + " doesn't exist");
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * @param spec in the form i/N, for instance 2/8
+	 */
+	static Shard parse(String spec) {
+		int slash = spec.indexOf('/');
+		if (slash <= 0) {
+			throw new IllegalArgumentException("Shard should be given as i/N, not " + spec);
+		}
+		try {
+			return new Shard(Integer.parseInt(spec.substring(0, slash).trim()), Integer.parseInt(spec.substring(slash + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Shard should be given as i/N, not " + spec);
+		}
+	}
+
+	boolean isAll() {
+		return count == 1;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	boolean includes(String family_name) {
+		if (count == 1) {
+			return true;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(family_name.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue() % count == index - 1;
+	}
+
+	List<String> select(List<String> families) {
+		List<String> selected = new ArrayList<>();
+		for (String family_name : families) {
+			if (includes(family_name)) {
+				selected.add(family_name);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * @return the file name with this shard worked in before the extension, e.g. touchup-2of8.journal
+	 */
+	String name(String file_name) {
+		if (count == 1) {
+			return file_name;
+		}
+		String tag = "-" + index + "of" + count;
+		int dot = file_name.lastIndexOf('.');
+		return dot > 0 ? file_name.substring(0, dot) + tag + file_name.substring(dot) : file_name + tag;
+	}
+
+	public String toString() {
+		return index + "/" + count;
+	}
+}
@@ -0,0 +1,98 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.bbop.phylo.tracking.FamilyMetrics;
+
+import com.google.gson.Gson;
+
+/**
+ * One JSON object per line for each family touched up, giving its outcome, the time taken
+ * by each phase, its size, the HTTP requests made for it and the heap in use once it was done.
+ *
+ * The report is kept in the GAF directory. A fresh run starts a new report, a resumed run adds to it.
+ */
+class TimingReport {
+
+	private static final Logger log = Logger.getLogger(TimingReport.class);
+
+	static final String REPORT_FILE = "touchup-timing.jsonl";
+
+	private static final long MB = 1024 * 1024;
+
+	private final File report_file;
+	private final Gson gson;
+	private BufferedWriter writer;
+
+	TimingReport(String gaf_dir, Shard shard) {
+		report_file = new File(gaf_dir, shard.name(REPORT_FILE));
+		gson = new Gson();
+	}
+
+	synchronized void open(boolean resume) {
+		try {
+			writer = new BufferedWriter(new FileWriter(report_file, resume));
+		} catch (IOException e) {
+			log.error("Unable to open timing report " + report_file + ": " + e.getMessage());
+			writer = null;
+		}
+	}
+
+	synchronized void record(FamilyOutcome outcome, FamilyMetrics metrics) {
+		if (writer == null) {
+			return;
+		}
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("family", outcome.getFamilyName());
+		row.put("status", outcome.getStatus().toString());
+		if (metrics != null) {
+			row.putAll(metrics.report());
+		}
+		Runtime runtime = Runtime.getRuntime();
+		row.put("heap_mb", (runtime.totalMemory() - runtime.freeMemory()) / MB);
+		try {
+			writer.write(gson.toJson(row));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			log.error("Unable to write to timing report: " + e.getMessage());
+		}
+	}
+
+	synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Unable to close timing report: " + e.getMessage());
+			}
+			writer = null;
+		}
+	}
+}
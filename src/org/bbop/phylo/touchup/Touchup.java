@@ -24,30 +24,24 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
-import javax.swing.SwingUtilities;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bbop.phylo.annotate.AnnotationUtil;
 import org.bbop.phylo.config.TouchupConfig;
 import org.bbop.phylo.config.TouchupYaml;
-import org.bbop.phylo.gaf.GafPropagator;
-import org.bbop.phylo.io.panther.PantherAdapterI;
-import org.bbop.phylo.io.panther.PantherDbInfo;
-import org.bbop.phylo.io.panther.TouchupPantherAdapter;
-import org.bbop.phylo.model.Family;
-import org.bbop.phylo.model.Tree;
-import org.bbop.phylo.tracking.LogAlert;
-import org.bbop.phylo.tracking.LogUtil;
-import org.bbop.phylo.tracking.Logger;
+import org.bbop.phylo.species.TaxonFinder;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.FileUtil;
 import org.bbop.phylo.util.LoginUtil;
+import org.bbop.phylo.util.OWLutil;
 import org.bbop.phylo.util.ResourceLoader;
-import org.bbop.phylo.util.TaxonChecker;
 
 public class Touchup {
 	/**
@@ -57,6 +51,37 @@ public class Touchup {
 
 	private static String[] args;
 
+	private static int thread_count = 1;
+
+	private static boolean incremental = false;
+
+	private static boolean resume = false;
+
+	private static boolean pipelined = false;
+
+	private static Shard shard = Shard.ALL;
+
+	private static int merge_count = 0;
+
+	private static boolean daemon = false;
+
+	private static boolean local = false;
+
+	private static boolean stop_daemon = false;
+
+	private static String compile_go = null;
+
+	private static boolean verify_go = false;
+	private static boolean refresh_go = false;
+
+	private InputManifest manifest;
+
+	private volatile RunJournal journal;
+
+	private FamilyScheduler scheduler;
+
+	private TimingReport timing;
+
 	private static final org.apache.log4j.Logger log = org.apache.log4j.Logger.getLogger(Touchup.class);
 
 	private static final String yaml_file = "config/preferences.yaml";
@@ -77,14 +102,17 @@ public class Touchup {
 				TouchupConfig.inst().save(yaml_file);
 			}
 		});
-		
-		SwingUtilities.invokeLater(theRunner.mainRun);
+
+		/* Touchup is a batch job, there is no display to be had, so keep AWT out of it */
+		System.setProperty("java.awt.headless", "true");
+		Thread batch = new Thread(theRunner.mainRun, "touchup");
+		batch.start();
 
 	}
 
 	private final Runnable mainRun =
 			new Runnable() {
-		// this thread runs in the AWT event queue
+		// this runs on a plain thread of its own, not the AWT event queue
 		public void run() {
 			int family_count;
 			if (args.length == 0) {
@@ -102,7 +130,35 @@ public class Touchup {
 			String family_list = null;
 			boolean use_server = false;
 			for (int i = 0; i < args.length; i++) {
-				if (args[i].contains("t")) {
+				/* long options first, otherwise they would be taken for one of the single letter flags below */
+				if (args[i].startsWith("--")) {
+					if (args[i].equals("--incremental")) {
+						incremental = true;
+					} else if (args[i].equals("--resume")) {
+						resume = true;
+					} else if (args[i].equals("--pipeline")) {
+						pipelined = true;
+					} else if (args[i].equals("--shard")) {
+						shard = Shard.parse(args[++i]);
+					} else if (args[i].equals("--merge")) {
+						merge_count = Integer.parseInt(args[++i]);
+					} else if (args[i].equals("--daemon")) {
+						daemon = true;
+					} else if (args[i].equals("--local")) {
+						local = true;
+					} else if (args[i].equals("--stop-daemon")) {
+						stop_daemon = true;
+					} else if (args[i].equals("--compile-go")) {
+						compile_go = args[++i];
+					} else if (args[i].equals("--refresh-go")) {
+						refresh_go = true;
+					} else if (args[i].equals("--verify-go")) {
+						verify_go = true;
+					} else {
+						provideHelp();
+						System.exit(0);
+					}
+				} else if (args[i].contains("t")) {
 					TouchupConfig.inst().treedir = args[++i];
 					log.info(TouchupConfig.inst().treedir);
 				} else if (args[i].contains("s")) {
@@ -118,6 +174,8 @@ public class Touchup {
 					}
 				} else if (args[i].contains("l")) {
 					family_list = args[++i];
+				} else if (args[i].contains("j")) {
+					thread_count = Math.max(1, Integer.parseInt(args[++i]));
 				} else if (args[i].contains("p")) {
 					use_server = true;
 					LoginUtil.login();
@@ -131,6 +189,64 @@ public class Touchup {
 				}
 			}
 
+			if (merge_count > 0) {
+				mergeShards(merge_count);
+				System.exit(0);
+			}
+
+			if (verify_go) {
+				try {
+					System.exit(OWLutil.verifyLoaders() ? 0 : 1);
+				} catch (IOException e) {
+					log.error("Unable to read GO: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+
+			if (refresh_go) {
+				String go_snapshot = TouchupConfig.inst().go_snapshot;
+				if (go_snapshot == null || go_snapshot.isEmpty()) {
+					log.error("No go_snapshot in the configuration to refresh");
+					System.exit(1);
+				}
+				try {
+					OWLutil.refreshSnapshot(new File(go_snapshot));
+					System.exit(0);
+				} catch (IOException e) {
+					log.error("Unable to refresh the GO snapshot: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+
+			if (compile_go != null) {
+				try {
+					OWLutil.compileSnapshot(new File(compile_go));
+					System.exit(0);
+				} catch (IOException e) {
+					log.error("Unable to write the GO snapshot: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+
+			TouchupClient client = new TouchupClient(TouchupConfig.inst().daemon_port);
+			if (stop_daemon) {
+				try {
+					client.shutdown();
+				} catch (IOException e) {
+					log.error("No touchup daemon to stop: " + e.getMessage());
+				}
+				System.exit(0);
+			}
+			if (daemon) {
+				try {
+					new TouchupDaemon(TouchupConfig.inst().daemon_port).serve();
+					System.exit(0);
+				} catch (IOException e) {
+					log.error("Unable to start the touchup daemon: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+
 			if (family_file == null && family_list == null) {
 				log.info("Retrieving families from this directory: " + TouchupConfig.inst().gafdir);
 				File f = new File(family_dir);
@@ -161,7 +277,12 @@ public class Touchup {
 				}
 			}
 			try {
-				family_count = touchup(families, use_server);
+				if (!local && !use_server && client.isDaemonRunning()) {
+					/* the daemon picks out this shard's families itself, as the journal etc. are named for the shard */
+					family_count = client.touchup(families);
+				} else {
+					family_count = touchup(families, use_server).getTouchedCount();
+				}
 				log.info("Touched up " + family_count + " PAINT families");
 				System.exit(0);
 			}
@@ -172,117 +293,244 @@ public class Touchup {
 		}
 	};
 
-	private int touchup(List<String> families, boolean use_server) {
+	/*
+	 * The run options of this command line, for the daemon to run the job with
+	 */
+	static void forwardRunOptions(TouchupDaemon.JobRequest request) {
+		request.resume = resume;
+		request.incremental = incremental;
+		request.pipelined = pipelined;
+		request.threads = thread_count;
+		request.shard = shard.toString();
+	}
+
+	/*
+	 * The daemon runs one job at a time, so each job can simply take over the run options
+	 */
+	static void adoptRunOptions(TouchupDaemon.JobRequest request) {
+		resume = request.resume;
+		incremental = request.incremental;
+		pipelined = request.pipelined;
+		thread_count = Math.max(1, request.threads);
+		shard = request.shard != null ? Shard.parse(request.shard) : Shard.ALL;
+	}
+
+	/*
+	 * Also used by the daemon, once for each job
+	 */
+	RunSummary touchup(List<String> families, boolean use_server) {
+		AnnotationUtil.newRun();
+		if (!shard.isAll()) {
+			families = shard.select(families);
+			log.info("Shard " + shard + " has " + families.size() + " of the families");
+		}
+		journal = new RunJournal(TouchupConfig.inst().gafdir, shard);
+		if (resume) {
+			families = journal.unfinished(families);
+		}
+		scheduler = new FamilyScheduler();
+		families = scheduler.order(families);
 		log.info(families.size() + " families to touch up");
-		Map<String, List<String>> run_summary = new HashMap<>();
-		int family_count = 0;
-		int gaf_count = 0;
-		int review_count = 0;
-		int tree_count = 0;
+		journal.open(resume, families.size());
+		timing = new TimingReport(TouchupConfig.inst().gafdir, shard);
+		timing.open(resume);
+		if (incremental) {
+			manifest = openManifest(use_server);
+		}
+		List<FamilyOutcome> outcomes;
+		if (pipelined) {
+			outcomes = touchupPipelined(families, use_server);
+		} else if (thread_count > 1) {
+			outcomes = touchupConcurrently(families, use_server);
+		} else {
+			outcomes = new ArrayList<>();
+			for (String family_name : families) {
+				log.info("Touching up " + family_name + " (" + (outcomes.size() + 1) + " of " + families.size() + ")");
+				FamilyOutcome outcome = touchupFamily(family_name, use_server);
+				outcomes.add(outcome);
+				if (outcome.isAborted()) {
+					break;
+				}
+			}
+		}
+		journal.close(families, outcomes);
+		timing.close();
+		if (manifest != null) {
+			manifest.save();
+		}
+		RunSummary run_summary = new RunSummary();
+		run_summary.setTotalCount(families.size());
+		for (FamilyOutcome outcome : outcomes) {
+			run_summary.add(outcome);
+		}
+		logSummary(run_summary);
+		log.info("GO lookups: " + OWLutil.inst().getLookupStats());
+		return run_summary;
+	}
+
+	/*
+	 * How many families of the run under way have been finished, for the daemon to report
+	 */
+	int getFinishedCount() {
+		RunJournal current = journal;
+		return current != null ? current.getFinishedCount() : 0;
+	}
+
+	/*
+	 * Families can only be compared with their previous run when the trees are local files
+	 * and both the GO release and the GOlr snapshot can be identified
+	 */
+	private InputManifest openManifest(boolean use_server) {
+		if (use_server) {
+			log.warn("Incremental touchup needs local PANTHER trees, all families will be touched up");
+			return null;
+		}
+		String go_version = OWLutil.inst().getVersion();
+		String evidence_snapshot = AnnotationUtil.getEvidenceSnapshot();
+		if (go_version == null || evidence_snapshot == null) {
+			log.warn("Unable to identify the GO release or the GOlr snapshot, all families will be touched up");
+			return null;
+		}
+		log.info("Touching up families changed since GO " + go_version + " and GOlr " + evidence_snapshot);
+		return new InputManifest(TouchupConfig.inst().gafdir, TouchupConfig.inst().treedir, shard, go_version, evidence_snapshot);
+	}
+
+	/*
+	 * Reading, fetching evidence, propagating and writing each run in their own stage,
+	 * with -j setting how many families may be waiting on GOlr at once
+	 */
+	private List<FamilyOutcome> touchupPipelined(List<String> families, boolean use_server) {
+		log.info("Pipelining with " + thread_count + " evidence fetchers");
+		OWLutil.inst();
+		TaxonFinder.preload();
+
+		List<FamilyTask> tasks = new ArrayList<>();
 		for (String family_name : families) {
-			log.info("Touching up " + family_name + " (" + (families.indexOf(family_name) + 1) + " of " + families.size() + ")");
-			boolean available = gafFileExists(family_name);
-			if (!available) {
-				log.info("Missing GAF file for " + family_name);
-			} else {
-				gaf_count++;
-				Family family = new Family(family_name);
-				Tree tree = new Tree(family_name);
-				PantherAdapterI adapter = new TouchupPantherAdapter(family_name, use_server);
-				
-				available &= family.fetch(tree, adapter);
-				if (available) {
-					boolean proceed = TaxonChecker.isLive();
-					if (proceed) {
-						proceed &= AnnotationUtil.loadExperimental(family);
-						if (proceed) {
-							/*
-							 * The file may be null, in which case the following two methods
-							 * simply return
-							 */
-							File family_dir = new File(TouchupConfig.inst().gafdir, family_name);
-
-							Logger.importUserLog(family_name, family_dir);
-
-							GafPropagator.importAnnotations(family, family_dir);
-							String comment = "Updated by " + ResourceLoader.inst().loadVersion() + 
-									" on " + LogUtil.dateNow() + 
-									" using " + Constant.PANTHER_VERSION + PantherDbInfo.getVersionKey();							
-							family.save(family_dir, comment);
-							family.export(family_dir);
-
-							int alert_count = LogAlert.getAlertCount();
-							if (alert_count > 0)  {
-								run_summary.put(family_name, LogAlert.report());                            	
-								review_count++;
-							} else {
-								run_summary.put(family_name, null);
-							}
-						} else {
-							log.error("Unable to load annotations for " + family_name);
-						}
-					} else {
-						log.error("TaxonChecker is down");
+			tasks.add(new FamilyTask(family_name, use_server, manifest));
+		}
+		return new TouchupPipeline(journal, scheduler, timing).run(tasks, thread_count);
+	}
+
+	/*
+	 * Each worker touches up one family at a time, using its own FamilyContext
+	 * The GO ontology and the taxa are loaded once, up front, and then shared by all of the workers
+	 */
+	private List<FamilyOutcome> touchupConcurrently(final List<String> families, final boolean use_server) {
+		log.info("Using " + thread_count + " threads");
+		OWLutil.inst();
+		TaxonFinder.preload();
+
+		final AtomicBoolean abort = new AtomicBoolean(false);
+		final AtomicInteger started = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(thread_count);
+		List<Future<FamilyOutcome>> pending = new ArrayList<>();
+		for (final String family_name : families) {
+			pending.add(pool.submit(new Callable<FamilyOutcome>() {
+				@Override
+				public FamilyOutcome call() {
+					if (abort.get()) {
+						return new FamilyOutcome(family_name, FamilyOutcome.Status.SKIPPED);
 					}
-					if (!proceed) {
-						logSummary(run_summary, families.size(), family_count, tree_count, gaf_count, review_count);
-						return run_summary.size();
+					try {
+						scheduler.admit(family_name);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return new FamilyOutcome(family_name, FamilyOutcome.Status.SKIPPED);
 					}
-					tree_count++;
-				} else {
-					log.error("Unable to load tree for " + family_name);
+					try {
+						log.info("Touching up " + family_name + " (" + started.incrementAndGet() + " of " + families.size() + ")");
+						FamilyOutcome outcome = touchupFamily(family_name, use_server);
+						if (outcome.isAborted()) {
+							abort.set(true);
+						}
+						return outcome;
+					} finally {
+						scheduler.release(family_name);
+					}
+				}
+			}));
+		}
+		pool.shutdown();
+
+		List<FamilyOutcome> outcomes = new ArrayList<>();
+		for (int i = 0; i < pending.size(); i++) {
+			String family_name = families.get(i);
+			try {
+				outcomes.add(pending.get(i).get());
+			} catch (InterruptedException e) {
+				log.error("Interrupted while waiting for " + family_name);
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				log.error("Unable to touch up " + family_name, e.getCause());
+				outcomes.add(new FamilyOutcome(family_name, FamilyOutcome.Status.FAILED));
+			}
+		}
+		return outcomes;
+	}
+
+	/*
+	 * The journal and the timing report hear about the family even if touching it up throws
+	 */
+	private FamilyOutcome touchupFamily(String family_name, boolean use_server) {
+		FamilyTask task = new FamilyTask(family_name, use_server, manifest);
+		journal.started(family_name);
+		try {
+			for (FamilyTask.Phase phase : FamilyTask.Phase.values()) {
+				if (!task.perform(phase)) {
+					break;
 				}
 			}
-			family_count++;
+		} finally {
+			journal.finished(task.getOutcome());
+			timing.record(task.getOutcome(), task.getMetrics());
 		}
-		logSummary(run_summary, families.size(), family_count, tree_count, gaf_count, review_count);
-		return run_summary.size();
+		return task.getOutcome();
 	}
 
-	private void logSummary(Map<String, List<String>> summaries, int total_fams, int family_count, int tree_count, int gaf_count, int review_count) {
+	/*
+	 * A shard only saves its tallies, the log report is written once all of the shards are merged
+	 */
+	private void logSummary(RunSummary summary) {
 		String program_name = ResourceLoader.inst().loadVersion();
 		File log_dir = new File(TouchupConfig.inst().gafdir);
 		if (FileUtil.validPath(log_dir)) {
-			File logFileName = new File(log_dir, program_name + Constant.LOG_SUFFIX);
-			List<String> contents = new ArrayList<>();
-			contents.add("# " + program_name + " Log Report for " + LogUtil.dateNow());
-			contents.add("");
-			contents.add("\n");
-			Set<String> families = summaries.keySet();
-			String[] fam_array = families.toArray(new String[families.size()]);
-			Arrays.sort(fam_array);
-			for (String family_name : families) {
-				List<String> alerts = summaries.get(family_name);
-				if (alerts != null) {
-					contents.add(family_name +  " needs review ---\n");
-					contents.addAll(alerts);
-				}
-			}
 			try {
-				contents.set(1, "Touched up " + summaries.size() + " of " + total_fams + " PAINT families " + 
-						(total_fams - family_count) + " no longer have trees, " +
-						(family_count - gaf_count) + " are missing GAF files, and " + 
-						review_count + " need reviewing.");
-				FileUtil.writeFile(logFileName, contents);
+				if (shard.isAll()) {
+					summary.report(new File(log_dir, program_name + Constant.LOG_SUFFIX), program_name);
+				} else {
+					summary.save(new File(log_dir, shard.name(program_name + RunSummary.SUMMARY_SUFFIX)));
+				}
 			} catch (IOException e) {
 				log.error("Unable to log touchup summary: " + e.getMessage());
 			}
 		}
 	}
 
-	private boolean gafFileExists(String family_name) {
-		File family_dir = new File(TouchupConfig.inst().gafdir, family_name);
-		boolean ok = FileUtil.validPath(family_dir);
-		if (ok) {
-			File gaf_file = new File(family_dir, family_name + Constant.GAF_SUFFIX);
-			ok = FileUtil.validFile(gaf_file);
-			if (!ok) {
-				log.info("Can't read: " + gaf_file);
+	private void mergeShards(int count) {
+		String program_name = ResourceLoader.inst().loadVersion();
+		File log_dir = new File(TouchupConfig.inst().gafdir);
+		RunSummary merged = new RunSummary();
+		int missing = 0;
+		for (int i = 1; i <= count; i++) {
+			File summary_file = new File(log_dir, new Shard(i, count).name(program_name + RunSummary.SUMMARY_SUFFIX));
+			try {
+				merged.merge(RunSummary.load(summary_file));
+			} catch (IOException e) {
+				log.error("Unable to read the summary of shard " + i + "/" + count + ": " + e.getMessage());
+				missing++;
 			}
-		} else {
-			log.info("Invalid path: " + family_dir);
 		}
-		return ok;
+		if (missing > 0) {
+			log.error(missing + " of " + count + " shards are missing from the merged summary");
+		}
+		try {
+			merged.report(new File(log_dir, program_name + Constant.LOG_SUFFIX), program_name);
+			log.info("Merged the summaries of " + (count - missing) + " shards");
+		} catch (IOException e) {
+			log.error("Unable to log touchup summary: " + e.getMessage());
+		}
 	}
 
 	private void provideHelp() {
@@ -294,6 +542,21 @@ public class Touchup {
 		buffer.append("\t -d <directoryname> -s <starting family name> // as above, but solely the alphabetically latter part of directory\n");
 		buffer.append("\n\t // optionally a -t argument may be added to any of the above to indicate the correct PANTHER tree directory\n");
 		buffer.append("\t -p // obtain PANTHER data from their server, rather than a local directory\n");
+		buffer.append("\t -j <number of threads> // touch up this many families at the same time\n");
+		buffer.append("\t --pipeline // overlap reading, evidence fetching, propagating and writing of successive families, -j sets the number of evidence fetchers\n");
+		buffer.append("\t // the time spent on each family is reported in <directoryname>/" + TimingReport.REPORT_FILE + "\n");
+		buffer.append("\t --resume // touch up only those families that the previous run did not complete\n");
+		buffer.append("\t // families that could not be completed are listed in <directoryname>/" + RunJournal.RETRY_FILE + ", for use with -l\n");
+		buffer.append("\t --shard <i/N> // touch up only the i'th of N slices of the families, so that N processes can share the work\n");
+		buffer.append("\t --merge <N> // combine the summaries of all N shards into the usual log report\n");
+		buffer.append("\t --daemon // load GO and the taxa, then touch up the families that are sent to it until stopped\n");
+		buffer.append("\t // while a daemon is running the families are handed to it, along with --resume, --incremental, -j, --pipeline and --shard\n");
+		buffer.append("\t --local // touch up the families here even if a daemon is running\n");
+		buffer.append("\t --stop-daemon // stop the daemon once it is finished with the jobs it has been given\n");
+		buffer.append("\t --verify-go // check both GO loaders on a small fixture, then that the OBO loader gives the same answers as OWLAPI and ELK for the current GO\n");
+		buffer.append("\t --compile-go <file> // compile the current GO release into a snapshot, point go_snapshot in the config at it\n");
+		buffer.append("\t --refresh-go // compile the go_snapshot again if GO has had a release since, runs never check on their own\n");
+		buffer.append("\t --incremental // pass over families whose trees, GAF, log, GO release and GOlr snapshot are unchanged since the last run\n");
 		log.error(buffer);
 	}
 }
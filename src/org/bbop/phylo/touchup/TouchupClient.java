@@ -0,0 +1,149 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bbop.phylo.config.TouchupConfig;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Hands a list of families over to a running TouchupDaemon and waits for it to finish them
+ */
+class TouchupClient {
+
+	private static final Logger log = Logger.getLogger(TouchupClient.class);
+
+	private static final Gson GSON = new Gson();
+
+	static final int POLL_INTERVAL = 5000;
+
+	private final int port;
+
+	TouchupClient(int port) {
+		this.port = port;
+	}
+
+	/* a daemon that is up answers straight away, there is no point in waiting on anything else */
+	private static final int PROBE_TIMEOUT = 2000;
+
+	/**
+	 * @return true if it is the touchup daemon that answers on the daemon's port, 
+	 * rather than nothing at all or some other program
+	 */
+	boolean isDaemonRunning() {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) new URL("http://localhost:" + port + TouchupDaemon.JOBS_PATH).openConnection();
+			connection.setConnectTimeout(PROBE_TIMEOUT);
+			connection.setReadTimeout(PROBE_TIMEOUT);
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				log.info("Something other than the touchup daemon is using port " + port + ", touching up locally");
+				return false;
+			}
+			try (InputStream response = connection.getInputStream()) {
+				TouchupDaemon.DaemonInfo info = GSON.fromJson(IOUtils.toString(response, StandardCharsets.UTF_8), TouchupDaemon.DaemonInfo.class);
+				if (info == null || !TouchupDaemon.DAEMON_NAME.equals(info.daemon)) {
+					log.info("Something other than the touchup daemon is using port " + port + ", touching up locally");
+					return false;
+				}
+				return true;
+			}
+		} catch (IOException | JsonSyntaxException e) {
+			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Submit the families and poll until the daemon has touched them up
+	 * @return the number of families touched up
+	 */
+	int touchup(List<String> families) throws IOException {
+		TouchupDaemon.JobRequest request = new TouchupDaemon.JobRequest();
+		request.families = families;
+		request.gafdir = TouchupConfig.inst().gafdir;
+		request.treedir = TouchupConfig.inst().treedir;
+		Touchup.forwardRunOptions(request);
+		TouchupDaemon.JobStatus status = call("POST", TouchupDaemon.JOBS_PATH, GSON.toJson(request));
+		log.info("Submitted job " + status.id + " of " + status.total + " families to the touchup daemon on port " + port);
+		int reported = -1;
+		while (!TouchupDaemon.DONE.equals(status.state) && !TouchupDaemon.FAILED.equals(status.state)) {
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for job " + status.id);
+			}
+			status = call("GET", TouchupDaemon.JOBS_PATH + "/" + status.id, null);
+			if (status.finished != reported) {
+				log.info("Job " + status.id + " is " + status.state + ", " + status.finished + " of " + status.total + " families finished");
+				reported = status.finished;
+			}
+		}
+		if (TouchupDaemon.FAILED.equals(status.state)) {
+			throw new IOException("Job " + status.id + " failed: " + status.message);
+		}
+		return status.touched;
+	}
+
+	void shutdown() throws IOException {
+		call("POST", TouchupDaemon.SHUTDOWN_PATH, "");
+	}
+
+	private TouchupDaemon.JobStatus call(String method, String path, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int code = connection.getResponseCode();
+		InputStream response = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+		String json = response != null ? IOUtils.toString(response, StandardCharsets.UTF_8) : "";
+		IOUtils.closeQuietly(response);
+		try {
+			TouchupDaemon.JobStatus status = GSON.fromJson(json, TouchupDaemon.JobStatus.class);
+			if (code >= 400) {
+				throw new IOException("Touchup daemon answered " + code + (status != null ? ": " + status.message : ""));
+			}
+			return status != null ? status : new TouchupDaemon.JobStatus();
+		} catch (JsonSyntaxException e) {
+			throw new IOException("Could not parse the reply of the touchup daemon", e);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.bbop.phylo.config.TouchupConfig;
+import org.bbop.phylo.species.TaxonFinder;
+import org.bbop.phylo.util.OWLutil;
+import org.bbop.phylo.util.TimerUtil;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps GO, the reasoner and the taxa loaded so that touching up a family or two 
+ * doesn't have to pay for loading them every time.
+ *
+ * The daemon listens on the loopback interface only:
+ * 	POST /jobs with a JobRequest as JSON queues a job and answers with its JobStatus
+ * 	GET /jobs/{id} answers with the JobStatus, to be polled until the job is done
+ * 	GET /jobs tells the client that this is the touchup daemon
+ * 	POST /shutdown stops the daemon once the jobs already queued are finished
+ * Jobs are run one at a time, in the order they were submitted, each with the run options
+ * (--resume, --incremental, -j, --pipeline, --shard) of the command line that submitted it.
+ */
+class TouchupDaemon {
+
+	private static final Logger log = Logger.getLogger(TouchupDaemon.class);
+
+	static final String JOBS_PATH = "/jobs";
+	static final String SHUTDOWN_PATH = "/shutdown";
+
+	static final String QUEUED = "queued";
+	static final String RUNNING = "running";
+	static final String DONE = "done";
+	static final String FAILED = "failed";
+
+	private static final Gson GSON = new Gson();
+
+	/* What the client sends */
+	static class JobRequest {
+		List<String> families;
+		String gafdir;
+		String treedir;
+		boolean resume;
+		boolean incremental;
+		boolean pipelined;
+		int threads;
+		String shard;
+	}
+
+	/* What the client gets back, written by the worker while the server threads read it */
+	static class JobStatus {
+		volatile String id;
+		volatile String state;
+		volatile int total;
+		volatile int finished;
+		volatile int touched;
+		volatile String message;
+	}
+
+	/* What GET /jobs answers, so that the client knows it is talking to a daemon and not just anything on the port */
+	static class DaemonInfo {
+		String daemon;
+		int jobs;
+	}
+
+	static final String DAEMON_NAME = "touchup";
+
+	private final int port;
+	private final ExecutorService worker;
+	private final Map<String, JobStatus> jobs;
+	private final AtomicInteger next_id;
+	private final CountDownLatch stopped;
+	private volatile Touchup current;
+	private volatile JobStatus current_status;
+
+	TouchupDaemon(int port) {
+		this.port = port;
+		worker = Executors.newSingleThreadExecutor();
+		jobs = new ConcurrentHashMap<>();
+		next_id = new AtomicInteger(0);
+		stopped = new CountDownLatch(1);
+	}
+
+	/**
+	 * Load everything that is shared between families, then serve jobs until told to shut down
+	 */
+	void serve() throws IOException {
+		TimerUtil timer = new TimerUtil();
+		OWLutil.inst();
+		TaxonFinder.preload();
+		log.info("Ready to touch up families after " + timer.reportElapsedTime());
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(JOBS_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("POST".equals(exchange.getRequestMethod())) {
+					submit(exchange);
+				} else {
+					status(exchange);
+				}
+			}
+		});
+		server.createContext(SHUTDOWN_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					reply(exchange, 405, "{\"message\":\"use POST to stop the daemon\"}");
+					return;
+				}
+				reply(exchange, 200, "{}");
+				stopped.countDown();
+			}
+		});
+		server.start();
+		log.info("Touchup daemon listening on port " + port);
+		try {
+			stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.info("Touchup daemon shutting down once the queued jobs are finished");
+		worker.shutdown();
+		try {
+			while (!worker.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.info("Still waiting for the last jobs to finish");
+			}
+			/* give the clients a chance to collect the final status of their jobs */
+			Thread.sleep(2 * TouchupClient.POLL_INTERVAL);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		server.stop(0);
+		log.info("Touchup daemon stopped");
+	}
+
+	private void submit(HttpExchange exchange) throws IOException {
+		final JobRequest request;
+		try (InputStream body = exchange.getRequestBody()) {
+			request = GSON.fromJson(IOUtils.toString(body, StandardCharsets.UTF_8), JobRequest.class);
+		} catch (JsonSyntaxException e) {
+			reply(exchange, 400, "{\"message\":\"unreadable job\"}");
+			return;
+		}
+		if (request == null || request.families == null || request.families.isEmpty()) {
+			reply(exchange, 400, "{\"message\":\"no families given\"}");
+			return;
+		}
+		final JobStatus status = new JobStatus();
+		status.id = Integer.toString(next_id.incrementAndGet());
+		status.state = QUEUED;
+		status.total = request.families.size();
+		jobs.put(status.id, status);
+		try {
+			worker.submit(new Runnable() {
+				@Override
+				public void run() {
+					runJob(request, status);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			jobs.remove(status.id);
+			reply(exchange, 503, "{\"message\":\"the daemon is shutting down\"}");
+			return;
+		}
+		log.info("Queued job " + status.id + " of " + status.total + " families");
+		reply(exchange, 200, GSON.toJson(status));
+	}
+
+	private void status(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		if (path.equals(JOBS_PATH) || path.equals(JOBS_PATH + "/")) {
+			DaemonInfo info = new DaemonInfo();
+			info.daemon = DAEMON_NAME;
+			info.jobs = jobs.size();
+			reply(exchange, 200, GSON.toJson(info));
+			return;
+		}
+		String id = path.substring(path.lastIndexOf('/') + 1);
+		JobStatus status = jobs.get(id);
+		if (status == null) {
+			reply(exchange, 404, "{\"message\":\"no such job\"}");
+			return;
+		}
+		Touchup running = current;
+		if (status == current_status && running != null) {
+			status.finished = running.getFinishedCount();
+		}
+		reply(exchange, 200, GSON.toJson(status));
+	}
+
+	/*
+	 * Jobs run one after another on the worker thread, so it is safe for each
+	 * to point the configuration at its own directories
+	 */
+	private void runJob(JobRequest request, JobStatus status) {
+		status.state = RUNNING;
+		if (request.gafdir != null) {
+			TouchupConfig.inst().gafdir = request.gafdir;
+		}
+		if (request.treedir != null) {
+			TouchupConfig.inst().treedir = request.treedir;
+		}
+		Touchup touchup = new Touchup();
+		current = touchup;
+		current_status = status;
+		try {
+			Touchup.adoptRunOptions(request);
+			RunSummary summary = touchup.touchup(new ArrayList<>(request.families), false);
+			status.touched = summary.getTouchedCount();
+			status.finished = touchup.getFinishedCount();
+			status.state = DONE;
+			log.info("Finished job " + status.id + ", touched up " + status.touched + " of " + status.total + " families");
+		} catch (RuntimeException | Error e) {
+			/* whatever went wrong, the client must not be left polling a job that stays RUNNING */
+			log.error("Job " + status.id + " failed", e);
+			status.message = e.getMessage() != null ? e.getMessage() : e.toString();
+			status.state = FAILED;
+		} finally {
+			current = null;
+			current_status = null;
+		}
+	}
+
+	private static void reply(HttpExchange exchange, int code, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
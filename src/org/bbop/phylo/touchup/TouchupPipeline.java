@@ -0,0 +1,228 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.touchup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the phases of touching up a family as separate stages, one after another,
+ * so that while one family is being propagated the next is already having its
+ * evidence fetched from GOlr and the one after that is being read from disk.
+ *
+ * The stages are joined by small bounded queues. A stage that gets ahead simply
+ * waits for room downstream, which keeps the number of families held in memory
+ * at a handful no matter how long the list of families is. On top of that a family is
+ * only read in once the scheduler finds room for it in the memory budget.
+ */
+class TouchupPipeline {
+
+	private static final Logger log = Logger.getLogger(TouchupPipeline.class);
+
+	/*
+	 * How many families may wait between two stages. Kept at one as large families
+	 * take a good part of the heap that touchUp.sh allows.
+	 */
+	private static final int QUEUE_DEPTH = 1;
+
+	/* tells a stage that there are no more families coming */
+	private static final FamilyTask END = new FamilyTask(null, false, null);
+
+	private final RunJournal journal;
+	private final FamilyScheduler scheduler;
+	private final TimingReport timing;
+	private final AtomicBoolean abort;
+	private final List<FamilyOutcome> outcomes;
+
+	TouchupPipeline(RunJournal journal, FamilyScheduler scheduler, TimingReport timing) {
+		this.journal = journal;
+		this.scheduler = scheduler;
+		this.timing = timing;
+		this.abort = new AtomicBoolean(false);
+		this.outcomes = Collections.synchronizedList(new ArrayList<FamilyOutcome>());
+	}
+
+	/**
+	 * @param fetchers how many families may be waiting on GOlr at the same time
+	 */
+	List<FamilyOutcome> run(List<FamilyTask> tasks, int fetchers) {
+		BlockingQueue<FamilyTask> to_load = new LinkedBlockingQueue<>(tasks);
+		to_load.add(END);
+		BlockingQueue<FamilyTask> to_fetch = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+		BlockingQueue<FamilyTask> to_propagate = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+		BlockingQueue<FamilyTask> to_write = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+
+		List<Thread> threads = new ArrayList<>();
+		threads.addAll(start(FamilyTask.Phase.LOAD, to_load, to_fetch, 1, fetchers));
+		threads.addAll(start(FamilyTask.Phase.EVIDENCE, to_fetch, to_propagate, fetchers, 1));
+		threads.addAll(start(FamilyTask.Phase.PROPAGATE, to_propagate, to_write, 1, 1));
+		threads.addAll(start(FamilyTask.Phase.WRITE, to_write, null, 1, 0));
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				log.error("Interrupted while waiting for the " + thread.getName() + " stage");
+				for (Thread other : threads) {
+					other.interrupt();
+				}
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return new ArrayList<>(outcomes);
+	}
+
+	private List<Thread> start(FamilyTask.Phase phase, BlockingQueue<FamilyTask> in, BlockingQueue<FamilyTask> out,
+			int workers, int downstream_workers) {
+		AtomicInteger running = new AtomicInteger(workers);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			Thread thread = new Thread(new Stage(phase, in, out, running, downstream_workers), phase + "-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		return threads;
+	}
+
+	private class Stage implements Runnable {
+		private final FamilyTask.Phase phase;
+		private final BlockingQueue<FamilyTask> in;
+		private final BlockingQueue<FamilyTask> out;
+		private final AtomicInteger running;
+		private final int downstream_workers;
+
+		Stage(FamilyTask.Phase phase, BlockingQueue<FamilyTask> in, BlockingQueue<FamilyTask> out,
+				AtomicInteger running, int downstream_workers) {
+			this.phase = phase;
+			this.in = in;
+			this.out = out;
+			this.running = running;
+			this.downstream_workers = downstream_workers;
+		}
+
+		@Override
+		public void run() {
+			try {
+				FamilyTask task = in.take();
+				while (task != END) {
+					boolean proceed;
+					try {
+						proceed = advance(task);
+					} catch (RuntimeException | Error e) {
+						/* 
+						 * keep on taking families, otherwise the stages upstream would wait forever for room,
+						 * but stop reading in any more of them
+						 */
+						log.error("Unexpected failure in the " + phase + " stage with " + task.getFamilyName(), e);
+						abort.set(true);
+						if (task.isAdmitted()) {
+							scheduler.release(task.getFamilyName());
+							task.setAdmitted(false);
+						}
+						proceed = false;
+					}
+					if (proceed) {
+						out.put(task);
+					}
+					task = in.take();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				/* the last worker of a stage to finish passes an END on to each worker of the next stage */
+				if (running.decrementAndGet() == 0) {
+					passEnd();
+				}
+			}
+		}
+
+		private void passEnd() {
+			for (int i = 0; i < downstream_workers; i++) {
+				try {
+					out.put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		/*
+		 * @return true if the family should be handed on to the next stage
+		 */
+		private boolean advance(FamilyTask task) {
+			if (phase == FamilyTask.Phase.LOAD || phase == FamilyTask.Phase.EVIDENCE) {
+				if (abort.get()) {
+					task.skip();
+					finish(task);
+					return false;
+				}
+			}
+			if (phase == FamilyTask.Phase.LOAD) {
+				try {
+					scheduler.admit(task.getFamilyName());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					task.skip();
+					finish(task);
+					return false;
+				}
+				task.setAdmitted(true);
+				journal.started(task.getFamilyName());
+			}
+			boolean proceed;
+			try {
+				proceed = task.perform(phase);
+			} catch (RuntimeException e) {
+				log.error("Unable to " + phase + " " + task.getFamilyName(), e);
+				proceed = false;
+			}
+			if (task.getOutcome().isAborted()) {
+				abort.set(true);
+			}
+			if (!proceed) {
+				finish(task);
+			}
+			return proceed;
+		}
+
+		private void finish(FamilyTask task) {
+			if (task.isAdmitted()) {
+				scheduler.release(task.getFamilyName());
+				task.setAdmitted(false);
+			}
+			journal.finished(task.getOutcome());
+			timing.record(task.getOutcome(), task.getMetrics());
+			outcomes.add(task.getOutcome());
+			log.info("Finished " + task.getFamilyName() + ": " + task.getOutcome().getStatus() + 
+					" (" + outcomes.size() + " done)");
+		}
+	}
+}
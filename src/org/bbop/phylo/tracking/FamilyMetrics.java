@@ -0,0 +1,126 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.tracking;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bbop.phylo.model.FamilyContext;
+
+/**
+ * Where the time goes while a family is touched up: wall time for each phase, 
+ * the size of the family and the HTTP requests that were made on its behalf.
+ * Also which of the family's files actually had to be rewritten.
+ *
+ * The phases are timed where the work is done, so they overlap a little: the taxon checks
+ * happen during propagation and are included in its time as well as their own.
+ */
+public class FamilyMetrics {
+
+	public static final String TREE_LOAD = "tree_load";
+	public static final String PANTHER_PARSE = "panther_parse";
+	public static final String GOLR_FETCH = "golr_fetch";
+	public static final String TAXON_CHECK = "taxon_check";
+	public static final String PROPAGATE = "propagate";
+	public static final String GAF_WRITE = "gaf_write";
+	public static final String PHYLOXML_EXPORT = "phyloxml_export";
+
+	private static final String [] PHASES = {
+		TREE_LOAD, PANTHER_PARSE, GOLR_FETCH, TAXON_CHECK, PROPAGATE, GAF_WRITE, PHYLOXML_EXPORT
+	};
+
+	private final Map<String, Long> phase_ms;
+	private int leaf_count;
+	private int annotation_count;
+	private int http_requests;
+	private long http_ms;
+	private final List<String> changed_outputs;
+	private int unchanged_outputs;
+
+	public FamilyMetrics() {
+		phase_ms = new LinkedHashMap<>();
+		for (String phase : PHASES) {
+			phase_ms.put(phase, 0L);
+		}
+		changed_outputs = new ArrayList<>();
+	}
+
+	public static FamilyMetrics inst() {
+		return FamilyContext.current().getMetrics();
+	}
+
+	/**
+	 * @param start_nanos from System.nanoTime() when the phase began
+	 */
+	public synchronized void addTime(String phase, long start_nanos) {
+		Long previous = phase_ms.get(phase);
+		phase_ms.put(phase, (previous != null ? previous : 0L) + elapsed(start_nanos));
+	}
+
+	public synchronized void addRequest(long start_nanos) {
+		http_requests++;
+		http_ms += elapsed(start_nanos);
+	}
+
+	public synchronized void addOutput(File file, boolean changed) {
+		if (changed) {
+			changed_outputs.add(file.getName());
+		} else {
+			unchanged_outputs++;
+		}
+	}
+
+	public synchronized List<String> getChangedOutputs() {
+		return new ArrayList<>(changed_outputs);
+	}
+
+	public synchronized void setLeafCount(int leaf_count) {
+		this.leaf_count = leaf_count;
+	}
+
+	public synchronized void setAnnotationCount(int annotation_count) {
+		this.annotation_count = annotation_count;
+	}
+
+	/**
+	 * @return one row of the timing report, the keys are in a fixed order
+	 */
+	public synchronized Map<String, Object> report() {
+		Map<String, Object> row = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> phase : phase_ms.entrySet()) {
+			row.put(phase.getKey() + "_ms", phase.getValue());
+		}
+		row.put("leaves", leaf_count);
+		row.put("annotations", annotation_count);
+		row.put("http_requests", http_requests);
+		row.put("http_ms", http_ms);
+		row.put("changed_outputs", new ArrayList<>(changed_outputs));
+		row.put("unchanged_outputs", unchanged_outputs);
+		return row;
+	}
+
+	private static long elapsed(long start_nanos) {
+		return (System.nanoTime() - start_nanos) / 1000000L;
+	}
+}
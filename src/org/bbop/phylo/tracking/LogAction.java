@@ -26,6 +26,7 @@ import java.util.List;
 import org.bbop.phylo.annotate.PaintAction;
 import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Family;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.bbop.phylo.tracking.LogEntry.LOG_ENTRY_TYPE;
 import org.bbop.phylo.util.Constant;
@@ -38,16 +39,15 @@ public class LogAction {
 	private List<LogEntry> done_log;
 	private List<LogEntry> undone_log;
 
-	private static LogAction INSTANCE;
-
-	private LogAction() {
+	/*
+	 * Each FamilyContext owns one of these, use inst() to get the one for the current family
+	 */
+	public LogAction() {
+		clearLog();
 	}
 
 	public static LogAction inst() {
-		if (INSTANCE == null) {
-			INSTANCE = new LogAction();
-		}
-		return INSTANCE;
+		return FamilyContext.current().getLogAction();
 	}
 
 	/*
@@ -24,56 +24,58 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.bbop.phylo.util.OWLutil;
 
 public class LogAlert {
 	/**
-	 *
+	 * Each FamilyContext owns one of these, the static methods work on the one for the current family
 	 */
-	private static List<LogEntry> invalids;
-	private static List<LogEntry> missing;
-	private static List<LogEntry> obsoletes;
+	private final List<LogEntry> invalids;
+	private final List<LogEntry> missing;
+	private final List<LogEntry> obsoletes;
 
 //	private static final org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(LogAlert.class);
 
+	public LogAlert() {
+		invalids = new ArrayList<>();
+		missing = new ArrayList<>();
+		obsoletes = new ArrayList<>();
+	}
+
+	private static LogAlert inst() {
+		return FamilyContext.current().getLogAlert();
+	}
+
 	public static void clearLog() {
-		if (invalids != null) {
-			invalids.clear();
-		} else {
-			invalids = new ArrayList<>();
-		}
-		if (missing != null) {
-			missing.clear();
-		} else {
-			missing = new ArrayList<>();
-		}
-		if (obsoletes != null) {
-			obsoletes.clear();
-		} else {
-			obsoletes = new ArrayList<>();
-		}
+		LogAlert alerts = inst();
+		alerts.invalids.clear();
+		alerts.missing.clear();
+		alerts.obsoletes.clear();
 	}
 
 	public static void logMissing(Bioentity node, GeneAnnotation assoc) {
 		LogEntry entry = new LogEntry(node, assoc, LogEntry.LOG_ENTRY_TYPE.MISSING, null);
-		missing.add(entry);
+		inst().missing.add(entry);
 	}
 
 	public static void logInvalid(Bioentity node, GeneAnnotation assoc, LogEntry.LOG_ENTRY_TYPE type) {
 		LogEntry entry = new LogEntry(node, assoc, type, null);
-		invalids.add(entry);
+		inst().invalids.add(entry);
 	}
 
 	public static void logObsolete(Bioentity node, GeneAnnotation assoc) {
 		LogEntry entry = new LogEntry(node, assoc, LogEntry.LOG_ENTRY_TYPE.OBSOLETE_TERM, null);
-		obsoletes.add(entry);
+		inst().obsoletes.add(entry);
 	}
 
 	public static void report(List<String> contents) {
-		if ((invalids != null && !invalids.isEmpty()) 
-				|| (missing != null && !missing.isEmpty()) 
-				|| (obsoletes != null && !obsoletes.isEmpty())) {
+		LogAlert alerts = inst();
+		List<LogEntry> invalids = alerts.invalids;
+		List<LogEntry> missing = alerts.missing;
+		List<LogEntry> obsoletes = alerts.obsoletes;
+		if (!invalids.isEmpty() || !missing.isEmpty() || !obsoletes.isEmpty()) {
 			if (!invalids.isEmpty()) {
 				contents.add("## Annotations that have been removed.");
 				for (LogEntry entry : invalids) {
@@ -122,15 +124,15 @@ public class LogAlert {
 	}
 
 	public static int getInvalidCount() {
-		return (invalids == null) ? 0 : invalids.size();
+		return inst().invalids.size();
 	}
 
 	public static int getMissingCount() {
-		return (missing == null) ? 0 : missing.size();
+		return inst().missing.size();
 	}
 
 	public static int getObsoleteCount() {
-		return (obsoletes == null) ? 0 : obsoletes.size();
+		return inst().obsoletes.size();
 	}
 	
 	public static int getAlertCount() {
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.species.TaxonFinder;
 import org.bbop.phylo.util.Constant;
 import org.bbop.phylo.util.FileUtil;
@@ -25,8 +26,16 @@ public class Logger {
 	private static final String HISTORY_SECTION = "# HISTORY";
 	protected static final String NONE = "- None -";
 
-	private static List<String> notes;
-	private static List<String> history;
+	/*
+	 * The curator's notes and history live in the FamilyContext of the family being worked on
+	 */
+	private static List<String> notes() {
+		return FamilyContext.current().getNotes();
+	}
+
+	private static List<String> history() {
+		return FamilyContext.current().getHistory();
+	}
 
 	public static void write(String family_name, File family_dir, String comment, String date) {		
 		if (FileUtil.validPath(family_dir)) {
@@ -41,7 +50,9 @@ public class Logger {
 			logNotes(contents);
 			logBoilerplate(contents);
 			try {
-				FileUtil.writeFile(logFileName, contents);
+				/* a run that changes nothing else shouldn't add to the history either */
+				boolean changed = FileUtil.writeFileIfChanged(logFileName, contents, null, date + ": " + comment);
+				FamilyMetrics.inst().addOutput(logFileName, changed);
 			} catch (IOException e) {
 				logger.error("Unable to log updates for " + family_name);
 				logger.error(e.getMessage());
@@ -65,7 +76,7 @@ public class Logger {
 					for (int i = 0; i < log_content.size(); i++) {
 						String line = log_content.get(i).trim();
 						if (line.length() > 0) {
-							notes.add(line);							
+							notes().add(line);							
 						}
 					}
 				} else {
@@ -80,20 +91,13 @@ public class Logger {
 	}
 
 	public static void clearUserLog() {
-		if (notes == null) {
-			notes = new ArrayList<>();
-		} else {
-			notes.clear();
-		}
-		if (history == null) {
-			history = new ArrayList<>();
-		} else {
-			history.clear();
-		}		
+		notes().clear();
+		history().clear();
 	}
 	
 	public static void updateNotes(String text) {
 		String [] lines = text.split("\n");
+		List<String> notes = notes();
 		notes.clear();
 		for (int i = 0; i < lines.length; i++) {
 			if (lines[i].trim().length() > 0) {
@@ -103,13 +107,11 @@ public class Logger {
 	}
 
 	public static void setNotes(List<String> text) {
-		notes = text;
+		FamilyContext.current().setNotes(text);
 	}
 
 	public static void logNotes(List<String> contents) {
-		if (notes == null) {
-			notes = new ArrayList<>();
-		}
+		List<String> notes = notes();
 		if (!notes.isEmpty()) {
 			contents.addAll(notes);
 		}
@@ -118,6 +120,7 @@ public class Logger {
 
 	private static void logHistory(List<String> contents, String comment, String date) {
 		contents.add(date + ": " + comment);
+		List<String> history = history();
 		if (history != null) {
 			for (int i = history.size() - 1; i >= 0; i--) {
 				contents.add(history.get(i));
@@ -167,7 +170,7 @@ public class Logger {
 					captured_history = true;
 				} else {
 					if (content_line.length() > 0) {
-						history.add(content_line);
+						history().add(content_line);
 					}
 					log_content.remove(i);
 				}
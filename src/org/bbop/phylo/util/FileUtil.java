@@ -5,8 +5,17 @@ import org.apache.log4j.Logger;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class FileUtil {
@@ -42,6 +51,76 @@ public class FileUtil {
 
 	}
 
+	/**
+	 * As writeFile, but leaves the file alone when the contents are no different
+	 * @return true if the file was written
+	 */
+	public static boolean writeFileIfChanged(File fileName, List<String> contents, String ignore_prefix, String ignore_line) throws IOException {
+		StringBuilder rendered = new StringBuilder();
+		for (String line : contents) {
+			rendered.append(line);
+			if (line.length() == 0 || line.charAt(line.length() - 1) != '\n')
+				rendered.append('\n');
+		}
+		return writeIfChanged(fileName, rendered.toString().getBytes(), ignore_prefix, ignore_line);
+	}
+
+	/**
+	 * Only replace the file if the new content differs from what is already there.
+	 * Lines beginning with the ignore_prefix, and any line equal to ignore_line, are left out 
+	 * of the comparison, so that a header carrying the date of the run doesn't count as a change.
+	 * Either may be null. 
+	 * The new content is written alongside the file and then moved over it, so that the file
+	 * is never left half written.
+	 * 
+	 * @return true if the file was written
+	 */
+	public static boolean writeIfChanged(File file, byte[] content, String ignore_prefix, String ignore_line) throws IOException {
+		if (file.isFile() && file.canRead()) {
+			byte[] existing = FileUtils.readFileToByteArray(file);
+			boolean same;
+			if (ignore_prefix == null && ignore_line == null) {
+				same = Arrays.equals(existing, content);
+			} else {
+				same = significantLines(new String(existing), ignore_prefix, ignore_line)
+						.equals(significantLines(new String(content), ignore_prefix, ignore_line));
+			}
+			if (same) {
+				return false;
+			}
+		}
+		File tmp_file = new File(file.getPath() + ".tmp");
+		FileUtils.writeByteArrayToFile(tmp_file, content);
+		replace(tmp_file, file);
+		return true;
+	}
+
+	/**
+	 * Move a file that has been written alongside over the file it replaces, 
+	 * atomically where the file system allows it
+	 */
+	public static void replace(File tmp_file, File file) throws IOException {
+		try {
+			Files.move(tmp_file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp_file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static List<String> significantLines(String text, String ignore_prefix, String ignore_line) {
+		List<String> lines = new ArrayList<>();
+		for (String line : text.split("\r?\n")) {
+			if (ignore_prefix != null && line.startsWith(ignore_prefix)) {
+				continue;
+			}
+			if (ignore_line != null && line.equals(ignore_line)) {
+				continue;
+			}
+			lines.add(line);
+		}
+		return lines;
+	}
+
 	public static boolean validPath(File path) {
 		if (null == path) {
 			return false;
@@ -56,4 +135,30 @@ public class FileUtil {
 		}
 		return ok;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return a hex SHA-1 digest of the file's contents, or null if the file can't be read
+	 */
+	public static String digest(File file) {
+		if (!validFile(file) || file.isDirectory()) {
+			return null;
+		}
+		try (InputStream in = new FileInputStream(file)) {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				md.update(buffer, 0, count);
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : md.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (IOException | NoSuchAlgorithmException e) {
+			log.error("Unable to digest " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package org.bbop.phylo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How the GO lookups of a run were answered: which term ids were found in the release,
+ * and whether subsumption came from a family's term matrix or from the snapshot closures.
+ *
+ * Every family thread counts on the hot paths, so the counters are striped by thread
+ * and each stripe has a cache line to itself. Adding them up is only done for the report.
+ */
+class LookupStats {
+
+	static final int TERM_FOUND = 0;
+	static final int TERM_UNKNOWN = 1;
+	static final int CLOSURE_MATRIX = 2;
+	static final int CLOSURE_SNAPSHOT = 3;
+
+	private static final int STRIPES = 16;
+	/* 8 longs to a 64 byte cache line, room for all of the counts above */
+	private static final int STRIPE_WIDTH = 8;
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+
+	void count(int kind) {
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+		counts.incrementAndGet(stripe * STRIPE_WIDTH + kind);
+	}
+
+	long get(int kind) {
+		long total = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			total += counts.get(stripe * STRIPE_WIDTH + kind);
+		}
+		return total;
+	}
+
+	public String toString() {
+		return "terms " + get(TERM_FOUND) + " found/" + get(TERM_UNKNOWN) + " unknown, " +
+				"closures " + get(CLOSURE_MATRIX) + " from family term matrices/" + get(CLOSURE_SNAPSHOT) + " from the snapshot";
+	}
+}
@@ -20,26 +20,40 @@ package org.bbop.phylo.util;
  */
 
 
+import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.bbop.phylo.annotate.AnnotationUtil;
+import org.bbop.phylo.annotate.SubtreeEvidence;
+import org.bbop.phylo.config.TouchupConfig;
 import org.bbop.phylo.gaf.parser.DefaultAspectProvider;
 import org.bbop.phylo.gaf.parser.GpadGpiObjectsBuilder.AspectProvider;
 import org.bbop.phylo.model.Bioentity;
+import org.bbop.phylo.model.FamilyContext;
 import org.bbop.phylo.model.GeneAnnotation;
 import org.geneontology.reasoner.ExpressionMaterializingReasoner;
 import org.obolibrary.oboformat.parser.OBOFormatParserException;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
+import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
@@ -56,28 +70,29 @@ import com.google.common.collect.Sets.SetView;
 import owltools.graph.OWLGraphWrapper;
 import owltools.io.ParserWrapper;
 
+/**
+ * GO as touchup sees it. Whichever way the ontology is loaded, every answer is worked out
+ * up front into an immutable OntologySnapshot and the graph and reasoner are then let go.
+ * Nothing here changes after loading, so any number of threads may ask questions at once
+ * without taking turns.
+ */
 public class OWLutil {
 
 	protected static Logger log = Logger.getLogger(OWLutil.class);
 
-	private final OWLGraphWrapper go_graph;
-	private final AncestorTool ancestor_tool;
-	private final AspectProvider aspect_provider;
-	private final Map<String, OWLClass> OWLclasses;
-	private final Map<String, String> term_labels;
-	private final Set<OWLObjectProperty> isaPartOf;
-	private final Set<OWLObjectProperty> isaPartOfRegulates;
+	private static final String GO_SOURCE = "http://purl.obolibrary.org/obo/go.obo";
+	/* so that an offline or firewalled host gives up on GO rather than hanging */
+	private static final int CONNECT_TIMEOUT = 30 * 1000;
+	private static final int READ_TIMEOUT = 2 * 60 * 1000;
 
-	private static final int LESS_THAN = -1;
-	private static final int GREATER_THAN = 1;
-	private static final int EQUAL_TO = 0;
+	private final OntologySnapshot ontology;
 
 	private static class AncestorTool implements Closeable {
 
 		private final Set<OWLObjectProperty> materializedProperties;
 		private final ExpressionMaterializingReasoner reasoner;
 
-		public AncestorTool(OWLOntology source, Set<OWLObjectProperty> materializedProperties, int cacheSize) {
+		public AncestorTool(OWLOntology source, Set<OWLObjectProperty> materializedProperties) {
 			super();
 			this.materializedProperties = materializedProperties;
 			reasoner = new ExpressionMaterializingReasoner(source, new ElkReasonerFactory());
@@ -93,6 +108,9 @@ public class OWLutil {
 			reasoner.dispose();
 		}
 
+		/*
+		 * Only asked while the snapshot is being built, families never query the reasoner
+		 */
 		public Set<OWLClass> getAncestorClosure(OWLClass c, final Set<OWLObjectProperty> relations){
 			return createAncestorClosure(c, relations);
 		}
@@ -142,217 +160,451 @@ public class OWLutil {
 		}
 	}
 
-	private OWLutil () {
+	private OWLutil (OntologySnapshot ontology) {
+		this.ontology = ontology;
+	}
+
+	private static volatile OWLutil INSTANCE = null;
+
+	public static OWLutil inst() {
+		if (INSTANCE == null) {
+			synchronized (OWLutil.class) {
+				if (INSTANCE == null) {
+					INSTANCE = load();
+				}
+			}
+		}
+		return INSTANCE;
+	}
+
+	/*
+	 * Use the compiled snapshot whenever one is configured, without going to the network:
+	 * it is only brought up to date by an explicit --refresh-go (or --compile-go).
+	 * Without a snapshot go.obo is parsed.
+	 */
+	private static OWLutil load() {
+		String path = TouchupConfig.inst().go_snapshot;
+		if (path != null && path.length() > 0 && new File(path).isFile()) {
+			try {
+				TimerUtil timer = new TimerUtil();
+				OntologySnapshot snapshot = OntologySnapshot.load(new File(path));
+				log.info("GO " + snapshot.getVersion() + " (" + snapshot.getDataVersion() + ") loaded from " + path + " " + timer.reportElapsedTime());
+				return new OWLutil(snapshot);
+			} catch (IOException e) {
+				log.error("Unable to read the GO snapshot " + path + ": " + e.getMessage());
+			}
+		}
+		return new OWLutil(parse(null));
+	}
+
+	/*
+	 * Compile the snapshot again, but only if GO has had a release since it was compiled
+	 * @return false if it was already of the current release
+	 */
+	public static boolean refreshSnapshot(File file) throws IOException {
+		String current = readDataVersion(GO_SOURCE);
+		if (current == null) {
+			throw new IOException("Unable to read the data-version of " + GO_SOURCE);
+		}
+		if (file.isFile()) {
+			String compiled = OntologySnapshot.load(file).getDataVersion();
+			if (current.equals(compiled)) {
+				log.info("The GO snapshot " + file + " is of the current release " + current);
+				return false;
+			}
+			log.info("The GO snapshot " + file + " is of " + compiled + " but " + GO_SOURCE + " is now " + current);
+		}
+		compileSnapshot(file);
+		return true;
+	}
+
+	/*
+	 * Parse the current go.obo and write everything touchup needs from it to a snapshot file
+	 */
+	public static void compileSnapshot(File file) throws IOException {
+		TimerUtil timer = new TimerUtil();
+		String data_version = readDataVersion(GO_SOURCE);
+		OntologySnapshot snapshot = parse(data_version);
+		snapshot.save(file);
+		log.info("GO snapshot of " + data_version + " with " + snapshot.size() + " terms written to " + file + " " + timer.reportElapsedTime());
+	}
+
+	/*
+	 * Read go.obo with whichever loader the configuration asks for
+	 */
+	private static OntologySnapshot parse(String data_version) {
+		if (TouchupConfig.OBO_LOADER.equalsIgnoreCase(TouchupConfig.inst().go_loader)) {
+			return parseOBO(GO_SOURCE);
+		}
+		return parseOWL(GO_SOURCE, data_version);
+	}
+
+	private static OntologySnapshot parseOBO(String source) {
+		try (BufferedReader reader = openSource(source)) {
+			TimerUtil timer = new TimerUtil();
+			log.info("Begin loading GO");
+			OboOntologyLoader loader = new OboOntologyLoader();
+			loader.read(reader);
+			log.info("GO retrieved " + timer.reportElapsedTime());
+			OntologySnapshot snapshot = loader.toSnapshot();
+			log.info("GO version " + snapshot.getVersion() + ", closures computed " + timer.reportElapsedTime());
+			return snapshot;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Check both loaders on the fixture, whose answers are known,
+	 * then load the current go.obo both ways and report anywhere the OBO loader and the reasoner disagree
+	 */
+	public static boolean verifyLoaders() throws IOException {
+		URL fixture = OWLutil.class.getResource("/" + OboOntologyLoader.FIXTURE);
+		if (fixture == null) {
+			throw new IOException("Unable to find " + OboOntologyLoader.FIXTURE);
+		}
+		OntologySnapshot fixture_obo = parseOBO(fixture.toString());
+		OntologySnapshot fixture_owl = parseOWL(fixture.toString(), null);
+		List<String> failures = new ArrayList<>();
+		for (String failure : OboOntologyLoader.checkFixture(fixture_obo)) {
+			failures.add("OBO loader, " + failure);
+		}
+		for (String failure : OboOntologyLoader.checkFixture(fixture_owl)) {
+			failures.add("Reasoner, " + failure);
+		}
+		failures.addAll(fixture_owl.compare(fixture_obo, 100));
+		for (String failure : failures) {
+			log.info(OboOntologyLoader.FIXTURE + ": " + failure);
+		}
+		if (!failures.isEmpty()) {
+			return false;
+		}
+		log.info("Both loaders give the expected answers on " + OboOntologyLoader.FIXTURE);
+
+		OntologySnapshot owl = parseOWL(GO_SOURCE, readDataVersion(GO_SOURCE));
+		OntologySnapshot obo = parseOBO(GO_SOURCE);
+		List<String> differences = owl.compare(obo, 100);
+		for (String difference : differences) {
+			log.info(difference);
+		}
+		if (differences.isEmpty()) {
+			log.info("The OBO loader matches the reasoner on all " + owl.size() + " classes of " + owl.getVersion());
+		}
+		return differences.isEmpty();
+	}
+
+	private static OntologySnapshot parseOWL(String source, String data_version) {
 		try {
 			TimerUtil timer = new TimerUtil();
 			log.info("Begin loading GO");
 			ParserWrapper pw = new ParserWrapper();
-			String iriString = "http://purl.obolibrary.org/obo/go.obo";
-			go_graph = new OWLGraphWrapper(pw.parse(iriString));
-			
+			OWLGraphWrapper go_graph = new OWLGraphWrapper(pw.parse(source));
+
 			log.info("GO retrieved " + timer.reportElapsedTime());
 
-			OWLclasses = new HashMap<>();
-			term_labels = new HashMap<>();
+			/* the data-version header of go.obo becomes the version IRI of the ontology */
+			IRI version_iri = go_graph.getSourceOntology().getOntologyID().getVersionIRI();
+			String go_version = version_iri != null ? version_iri.toString() : null;
+			log.info("GO version " + go_version);
+
 			OWLObjectProperty part_of = go_graph.getOWLObjectPropertyByIdentifier("BFO:0000050"); // part_of
 			OWLObjectProperty regulates = go_graph.getOWLObjectPropertyByIdentifier("RO:0002211"); // regulates
 			OWLObjectProperty pos_regulates = go_graph.getOWLObjectPropertyByIdentifier("RO:0002213"); // positively regulates
 			OWLObjectProperty neg_regulates = go_graph.getOWLObjectPropertyByIdentifier("RO:0002212"); // negatively regulates
-			isaPartOf = Collections.<OWLObjectProperty>singleton(part_of);
-			isaPartOfRegulates = new HashSet<>();
+			List<Set<OWLObjectProperty>> relation_sets = new ArrayList<>();
+			Set<OWLObjectProperty> isaPartOfRegulates = new HashSet<>();
 			isaPartOfRegulates.add(part_of);
 			isaPartOfRegulates.add(regulates);
 			isaPartOfRegulates.add(neg_regulates);
 			isaPartOfRegulates.add(pos_regulates);
+			relation_sets.add(Collections.<OWLObjectProperty>emptySet());
+			relation_sets.add(Collections.<OWLObjectProperty>singleton(part_of));
+			relation_sets.add(isaPartOfRegulates);
+
+			try (AncestorTool ancestor_tool = new AncestorTool(go_graph.getSourceOntology(), isaPartOfRegulates)) {
+				/* in a fixed order, so that a term below two roots ends up with the same aspect from both loaders */
+				Map<String, String> mappings = new LinkedHashMap<String, String>();
+				for (String [] root : OboOntologyLoader.ROOTS) {
+					mappings.put(root[0], root[1]);
+				}
 
-			ancestor_tool = new AncestorTool(go_graph.getSourceOntology(), isaPartOfRegulates, 10000);
-
-			Map<String, String> mappings = new HashMap<String, String>();
-			mappings.put("GO:0008150", "P");
-			mappings.put("GO:0003674", "F");
-			mappings.put("GO:0005575", "C");
+				AspectProvider aspect_provider = DefaultAspectProvider.createAspectProvider(go_graph, mappings, ancestor_tool.getReasoner());
 
-			aspect_provider = DefaultAspectProvider.createAspectProvider(go_graph, mappings, ancestor_tool.getReasoner());
-			
-			log.info("GO relations loaded " + timer.reportElapsedTime());
+				log.info("GO relations loaded " + timer.reportElapsedTime());
 
+				OntologySnapshot snapshot = toSnapshot(go_graph, ancestor_tool, aspect_provider, relation_sets, go_version, data_version);
+				log.info("GO closures computed " + timer.reportElapsedTime());
+				return snapshot;
+			}
 		} catch (OWLOntologyCreationException e) {
 			throw new RuntimeException(e);
 		} catch (OBOFormatParserException e) {
 			throw new RuntimeException(e);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} catch (Exception e) {
-			throw e;
 		}
 	}
 
-	private static volatile OWLutil INSTANCE = null;
+	private static OntologySnapshot toSnapshot(OWLGraphWrapper go_graph,
+			AncestorTool ancestor_tool,
+			AspectProvider aspect_provider,
+			List<Set<OWLObjectProperty>> relation_sets,
+			String go_version,
+			String data_version) {
+		List<String> id_list = new ArrayList<>();
+		Map<String, OWLClass> classes = new HashMap<>();
+		for (OWLClass c : go_graph.getAllOWLClasses()) {
+			String id = go_graph.getIdentifier(c);
+			if (!c.isBuiltIn() && id != null && !classes.containsKey(id)) {
+				id_list.add(id);
+				classes.put(id, c);
+			}
+		}
+		Collections.sort(id_list);
+		String [] ids = id_list.toArray(new String[id_list.size()]);
+		int count = ids.length;
+
+		String [] labels = new String[count];
+		byte [] aspects = new byte[count];
+		byte [] flags = new byte[count];
+		List<String> subset_names = new ArrayList<>();
+		int [] subset_offsets = new int[count + 1];
+		List<Integer> subsets = new ArrayList<>();
+		int [] replaced_offsets = new int[count + 1];
+		List<String> replaced_by = new ArrayList<>();
+		Map<String, Integer> alt_map = new HashMap<>();
+		int [][] closure_offsets = new int[OntologySnapshot.RELATION_SETS][count + 1];
+		List<List<Integer>> closures = new ArrayList<>();
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			closures.add(new ArrayList<Integer>());
+		}
 
-	public static OWLutil inst() {
-		if (INSTANCE == null) {
-			synchronized (OWLutil.class) {
-				if (INSTANCE == null) {
-					INSTANCE = new OWLutil();
+		for (int term = 0; term < count; term++) {
+			OWLClass c = classes.get(ids[term]);
+			labels[term] = go_graph.getLabelOrDisplayId(c);
+			String aspect = aspect_provider.getAspect(ids[term]);
+			aspects[term] = aspect != null ? (byte) aspect.charAt(0) : 0;
+			flags[term] = go_graph.isObsolete(c) ? (byte) 1 : 0;
+			List<String> term_subsets = go_graph.getSubsets(c);
+			if (term_subsets != null) {
+				for (String subset : term_subsets) {
+					if (!subset_names.contains(subset)) {
+						subset_names.add(subset);
+					}
+					subsets.add(subset_names.indexOf(subset));
+				}
+			}
+			subset_offsets[term + 1] = subsets.size();
+			List<String> replacements = go_graph.getReplacedBy(c);
+			if (replacements != null) {
+				replaced_by.addAll(replacements);
+			}
+			replaced_offsets[term + 1] = replaced_by.size();
+			List<String> alts = go_graph.getAltIds(c);
+			if (alts != null) {
+				for (String alt : alts) {
+					alt_map.put(alt, term);
+				}
+			}
+			for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+				List<Integer> closure = closures.get(r);
+				int start = closure.size();
+				for (OWLClass ancestor : ancestor_tool.getAncestorClosure(c, relation_sets.get(r))) {
+					int index = Arrays.binarySearch(ids, go_graph.getIdentifier(ancestor));
+					if (index >= 0) {
+						closure.add(index);
+					}
 				}
+				Collections.sort(closure.subList(start, closure.size()));
+				closure_offsets[r][term + 1] = closure.size();
 			}
 		}
-		return INSTANCE;
+
+		List<String> alt_list = new ArrayList<>(alt_map.keySet());
+		Collections.sort(alt_list);
+		String [] alt_ids = alt_list.toArray(new String[alt_list.size()]);
+		int [] alt_targets = new int[alt_ids.length];
+		for (int i = 0; i < alt_ids.length; i++) {
+			alt_targets[i] = alt_map.get(alt_ids[i]);
+		}
+		IntBuffer [] closure_values = new IntBuffer[OntologySnapshot.RELATION_SETS];
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			closure_values[r] = IntBuffer.wrap(toArray(closures.get(r)));
+		}
+		return new OntologySnapshot(go_version, data_version, ids, labels, aspects, flags,
+				subset_names.toArray(new String[subset_names.size()]), subset_offsets, toArray(subsets),
+				replaced_offsets, replaced_by.toArray(new String[replaced_by.size()]),
+				alt_ids, alt_targets, closure_offsets, closure_values);
+	}
+
+	private static int [] toArray(List<Integer> values) {
+		int [] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
 	}
 
 	/*
-		to avoid overuse of memory reset the term hash
-		after a new family is loaded
+	 * Only reads as far as the data-version line in the header, not the whole ontology
 	 */
-	public void clearTerms() {
-		if (OWLclasses != null) {
-			OWLclasses.clear();
-			term_labels.clear();
-			System.gc();
+	private static String readDataVersion(String source) {
+		try {
+			try (BufferedReader reader = openSource(source)) {
+				String line;
+				while ((line = reader.readLine()) != null && !line.startsWith("[")) {
+					if (line.startsWith("data-version:")) {
+						return line.substring("data-version:".length()).trim();
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read the header of " + source + ": " + e.getMessage());
 		}
+		return null;
+	}
+
+	private static BufferedReader openSource(String source) throws IOException {
+		URLConnection connection = openConnection(new URL(source));
+		/* the purl redirects, possibly from http to https which isn't followed automatically */
+		for (int hops = 0; hops < 5 && connection instanceof HttpURLConnection; hops++) {
+			HttpURLConnection http = (HttpURLConnection) connection;
+			int code = http.getResponseCode();
+			if (code < 300 || code >= 400 || http.getHeaderField("Location") == null) {
+				break;
+			}
+			URL next = new URL(http.getURL(), http.getHeaderField("Location"));
+			http.disconnect();
+			connection = openConnection(next);
+		}
+		return new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	private static URLConnection openConnection(URL url) throws IOException {
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		return connection;
+	}
+
+	/*
+	 * The release of GO that was loaded, or null if the ontology didn't say
+	 */
+	public String getVersion() {
+		return ontology.getVersion();
+	}
+
+	/*
+	 * How the lookups of the run so far were answered, for the log
+	 */
+	public String getLookupStats() {
+		return ontology.getStats().toString();
 	}
 
 	public  boolean isObsolete(String go_id) {
-		OWLClass term = getTerm(go_id);
-		return term == null || (term != null && go_graph.isObsolete(term));
+		return ontology.isObsolete(go_id);
 	}
 
-	public  List<String> replacedBy(String go_id) {
-		OWLClass term = getTerm(go_id);
-		List<String> go_ids;
-		if (term != null) {
-			go_ids = go_graph.getReplacedBy(term);
-			if (go_ids != null) {
-				if (go_ids.size() > 1) {
-					log.info("More than one replacement term for " + term);
-				}
-			} else {
-				log.info("No replacement for obsolete term " + term);
-			}
-		} else {
-			go_ids = new ArrayList<>();
-			/* try looking it up as an alt-id */
-			term = go_graph.getOWLClassByIdentifier(go_id, true);
-			if (term != null) {
-				String term_id = go_graph.getIdentifier(term);
-				OWLclasses.put(term_id, term);
-				setTermLabel(term_id);
-				go_ids.add(term_id);
-			}
+	public  boolean isObsolete(int term) {
+		return ontology.isObsolete(term);
+	}
 
-		}
-		return go_ids;
+	public  List<String> replacedBy(String go_id) {
+		return ontology.replacedBy(go_id);
 	}
 
 	public  boolean isExcluded(String go_id) {
-		OWLClass term = getTerm(go_id);
-		return isExcluded(term);
+		return ontology.isExcluded(go_id);
 	}
 
-	private  boolean isExcluded(OWLClass term) {
-		List<String> subsets = go_graph.getSubsets(term);
-		boolean isExcluded = false;
-		for(String subset : subsets) {
-			if ("gocheck_do_not_manually_annotate".equals(subset) || "gocheck_do_not_annotate".equals(subset)) {
-				isExcluded = true;
-				break;
-			}
-		}
-		return isExcluded;
+	public  boolean isExcluded(int term) {
+		return ontology.isExcluded(term);
 	}
 
 	public  String getTermLabel(String go_id) {
-		String label = term_labels.get(go_id);
-		if (label == null) {
-			label = setTermLabel(go_id);
-		}
-		return label;
+		return ontology.getTermLabel(go_id);
 	}
 
-	private  String setTermLabel(String go_id) {
-		String label;
-		OWLClass term = getTerm(go_id);
-		if (term != null) {
-			label = go_graph.getLabelOrDisplayId(term);
-		} else {
-			label = go_id + " no label";
-		}
-		term_labels.put(go_id, label);
-		return label;
+	public  String getAspect(String term_id) {
+		return ontology.getAspect(term_id);
 	}
 
-	public  String getAspect(String term_id) {
-		String aspect;
-		aspect = aspect_provider.getAspect(term_id);
-		return aspect;
+	public  String getAspect(int term) {
+		return ontology.getAspect(term);
 	}
 
-	public  boolean moreSpecific(String check_term, String against_term) {
-		return moreSpecific(check_term, against_term, isaPartOf);
+	/*
+	 * The handle of a term: its index in the ontology tables, or -1 if go_id isn't a (primary) id in this release.
+	 * Handles of the same release can be compared with == and checked against each other without any lookups.
+	 */
+	public int getTermId(String go_id) {
+		return ontology.indexOf(go_id);
 	}
 
-	public  boolean moreSpecific(String check_term, String against_term, boolean regulates) {
-		return moreSpecific(check_term, against_term, isaPartOfRegulates);
+	public String getTerm(int term) {
+		return ontology.getId(term);
+	}
+
+	public  boolean moreSpecific(int check_term, int against_term) {
+		return moreSpecific(check_term, against_term, OntologySnapshot.IS_A_PART_OF);
 	}
 
-	private  boolean moreSpecific(String check_term, String against_term, Set<OWLObjectProperty> relations) {
-		OWLClass check = getTerm(check_term);
-		OWLClass against = getTerm(against_term);
-		return moreSpecific(check, against, relations);
+	public  boolean moreSpecific(int check_term, int against_term, boolean regulates) {
+		return moreSpecific(check_term, against_term, OntologySnapshot.IS_A_PART_OF_REGULATES);
 	}
 
-	private  boolean moreSpecific(OWLClass o1, OWLClass o2, Set<OWLObjectProperty> relations) {
-		Set<OWLClass> broader_terms = ancestor_tool.getAncestorClosure(o1, relations);
-		if (broader_terms == null || o2 == null) {
-			return false; // ?? not sure what to do in this case
-		} else {
-			return broader_terms.contains(o2);
+	/*
+	 * While a family is being propagated its own term matrix answers, see buildTermMatrix
+	 */
+	private boolean moreSpecific(int check_term, int against_term, int relations) {
+		TermMatrix matrix = FamilyContext.current().getTermMatrix();
+		if (matrix != null) {
+			ontology.getStats().count(LookupStats.CLOSURE_MATRIX);
+			return matrix.moreSpecific(check_term, against_term, relations);
+		}
+		if (check_term < 0 || against_term < 0) {
+			return false;
 		}
+		ontology.getStats().count(LookupStats.CLOSURE_SNAPSHOT);
+		return ontology.isAncestor(check_term, against_term, relations);
 	}
 
-	public  List<String> getAncestors(String term) {
-		OWLClass check = getTerm(term);
-		Set<OWLClass> broader_terms = ancestor_tool.getAncestorClosure(check, isaPartOfRegulates);
-		List<String> ancestors = new ArrayList<>();
-		List<OWLClass> sortedClasses = new ArrayList<OWLClass>(broader_terms);
-		Collections.sort(sortedClasses, new Comparator<OWLClass>() {
-
-			@Override
-			public int compare(OWLClass o1, OWLClass o2) {
-				/*
-				 * Within a single aspect we want the more specific terms first
-				 */
-				if (moreSpecific(o1, o2, isaPartOf)) {
-					return LESS_THAN;
-				} else if (moreSpecific(o2, o1, isaPartOf)) {
-					return GREATER_THAN;
-				} else {
-					return EQUAL_TO;
-				}
-			}
-		});
-
-		String aspect = getAspect(term);
-		if (aspect != null) {
-			for (OWLClass owlClass : sortedClasses) {
-				String cls = go_graph.getIdentifier(owlClass);
-				String cls_aspect = getAspect(cls);
-				if (aspect.equals(cls_aspect) && !isExcluded(owlClass)) {
-					ancestors.add(cls);
-				}
-			}
-		} else {
-			// add it anyway, not log it
-			ancestors.add(term);
-			log.info(term + " does not have an aspect defined");
+	/*
+	 * Work out the subsumption between all of the given terms at once
+	 */
+	public TermMatrix buildTermMatrix(Collection<String> go_ids) {
+		Set<Integer> handles = new HashSet<>();
+		for (String go_id : go_ids) {
+			handles.add(getTermId(go_id));
 		}
-		return ancestors;
+		return new TermMatrix(ontology, handles);
+	}
+
+	public  boolean moreSpecific(String check_term, String against_term) {
+		return ontology.moreSpecific(check_term, against_term, OntologySnapshot.IS_A_PART_OF);
+	}
+
+	public  boolean moreSpecific(String check_term, String against_term, boolean regulates) {
+		return ontology.moreSpecific(check_term, against_term, OntologySnapshot.IS_A_PART_OF_REGULATES);
+	}
+
+	public  List<String> getAncestors(String term) {
+		return ontology.getAncestors(term);
 	}
 
 	public  boolean descendantsAllBroader(Bioentity node, String go_id, boolean all_broader) {
+		/* while a GAF is being propagated the subtree's terms have already been gathered */
+		SubtreeEvidence evidence = FamilyContext.current().getSubtreeEvidence();
+		int [] subtree_terms = evidence != null ? evidence.getTerms(node) : null;
+		if (subtree_terms != null) {
+			int term = getTermId(go_id);
+			for (int i = 0; i < subtree_terms.length && all_broader; i++) {
+				all_broader &= subtree_terms[i] != term && isA(term, subtree_terms[i]);
+			}
+			return all_broader;
+		}
 		List<GeneAnnotation> associations = AnnotationUtil.getExperimentalAssociations(node);
-		OWLClass annot_term = getTerm(go_id);
-		Set<OWLClass> broader_terms = ancestor_tool.getAncestorClosure(annot_term, Collections.<OWLObjectProperty>emptySet());
+		int term = getTermId(go_id);
 		if (associations != null) {
 			for (GeneAnnotation annotation : associations) {
 				// since we've decided to always do positive annotations with NOTs being added afterwards, should make sure that
@@ -364,7 +616,7 @@ public class OWLutil {
 						 * First argument is the parent term, second term is the descendant
 						 * returns true if 2nd argument is a descendant of the 1st argument 
 						 */
-						all_broader &= (!go_id.equals(annot_id)) && (broader_terms.contains(getTerm(annot_id)));
+						all_broader &= (!go_id.equals(annot_id)) && isA(term, annotation.getClsId());
 					}
 				}
 			}
@@ -378,12 +630,17 @@ public class OWLutil {
 		return all_broader;
 	}
 
-	public OWLClass getTerm(String go_id) {
-		OWLClass term = OWLclasses.get(go_id);
-		if (term == null) {
-			term = go_graph.getOWLClassByIdentifier(go_id);
-			OWLclasses.put(go_id, term);
-		}
-		return term;
+	/*
+	 * True if descendant lies below (or is) ancestor by is_a alone
+	 */
+	private boolean isA(int descendant, int ancestor) {
+		return moreSpecific(descendant, ancestor, OntologySnapshot.IS_A);
+	}
+
+	/*
+	 * Whether go_id is a (primary) id of a term in this release, obsolete or not
+	 */
+	public boolean isTerm(String go_id) {
+		return ontology.isTerm(go_id);
 	}
 }
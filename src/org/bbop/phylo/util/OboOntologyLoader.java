@@ -0,0 +1,735 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads go.obo straight into the OntologySnapshot tables, without OWLAPI and without a reasoner.
+ *
+ * The closures are what ELK entails from the same file: C is_a D, or C SubClassOf R some D,
+ * for the relations touchup follows (part_of, and regulates with positively and negatively regulates).
+ * Rather than assuming how those relations behave, the property axioms are taken from the [Typedef] stanzas
+ * (is_a, is_transitive, transitive_over, holds_over_chain) and applied the way the reasoner would:
+ * - C is_a D and D R E gives C R E
+ * - C R D and D is_a E gives C R E
+ * - C R D and D S E gives C T E, where R o S -> T by the axioms
+ * - C R E gives C T E for every relation T that R is_a.
+ * Chains are composed left to right, which covers the axioms GO has for these relations.
+ * A logical definition (intersection_of) counts as the links it is made of.
+ * GO releases have the inferred is_a links asserted, so the is_a part needs no classification.
+ * OWLutil.verifyLoaders (--verify-go) checks both loaders on a small fixture of known answers, then compares them on a release.
+ */
+class OboOntologyLoader {
+
+	private static final Logger log = Logger.getLogger(OboOntologyLoader.class);
+
+	/* in the order that OWLutil hands them to DefaultAspectProvider, a later root wins */
+	static final String [][] ROOTS = {{"GO:0008150", "P"}, {"GO:0003674", "F"}, {"GO:0005575", "C"}};
+
+	private static final String [] PART_OF = {"part_of", "BFO:0000050"};
+	private static final String [] REGULATES = {
+		"regulates", "RO:0002211", 
+		"positively_regulates", "RO:0002213", 
+		"negatively_regulates", "RO:0002212"
+	};
+
+	/* the relation number of is_a, the others are numbered from 1 */
+	private static final int IS_A = 0;
+
+	/*
+	 * Everything known about one term while the file is being read
+	 */
+	private static class Stanza {
+		String name;
+		boolean obsolete;
+		List<String> subsets = new ArrayList<>();
+		List<String> replaced_by = new ArrayList<>();
+		List<String> alt_ids = new ArrayList<>();
+		List<String> is_a = new ArrayList<>();
+		/* relation and target, for relationship and intersection_of differentia */
+		List<String []> links = new ArrayList<>();
+	}
+
+	/*
+	 * The axioms of one relation
+	 */
+	private static class Typedef {
+		String id;
+		List<String> xrefs = new ArrayList<>();
+		List<String> is_a = new ArrayList<>();
+		boolean transitive;
+		List<String> transitive_over = new ArrayList<>();
+		List<String []> chains = new ArrayList<>();
+	}
+
+	private final Map<String, Stanza> stanzas = new HashMap<>();
+	private final List<Typedef> typedefs = new ArrayList<>();
+	private String ontology_name;
+	private String data_version;
+
+	void read(BufferedReader reader) throws IOException {
+		String line;
+		Stanza current = null;
+		Typedef current_typedef = null;
+		boolean in_header = true;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("!")) {
+				continue;
+			}
+			if (line.startsWith("[")) {
+				in_header = false;
+				current = null;
+				current_typedef = null;
+				if (line.equals("[Term]")) {
+					current = new Stanza();
+				} else if (line.equals("[Typedef]")) {
+					current_typedef = new Typedef();
+					typedefs.add(current_typedef);
+				}
+				continue;
+			}
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String tag = line.substring(0, colon);
+			String value = line.substring(colon + 1).trim();
+			if (in_header) {
+				if (tag.equals("data-version")) {
+					data_version = value;
+				} else if (tag.equals("ontology")) {
+					ontology_name = value;
+				}
+			} else if (current != null) {
+				readTag(current, tag, value);
+			} else if (current_typedef != null) {
+				readTypedefTag(current_typedef, tag, value);
+			}
+		}
+	}
+
+	private void readTag(Stanza stanza, String tag, String value) {
+		switch (tag) {
+		case "id":
+			stanzas.put(value, stanza);
+			break;
+		case "name":
+			stanza.name = value;
+			break;
+		case "is_obsolete":
+			stanza.obsolete = value.equals("true");
+			break;
+		case "subset":
+			stanza.subsets.add(reference(value));
+			break;
+		case "replaced_by":
+			stanza.replaced_by.add(reference(value));
+			break;
+		case "alt_id":
+			stanza.alt_ids.add(reference(value));
+			break;
+		case "is_a":
+			stanza.is_a.add(reference(value));
+			break;
+		case "relationship":
+		case "intersection_of":
+			String [] parts = reference(value).split("\\s+");
+			if (parts.length == 1 && tag.equals("intersection_of")) {
+				/* the genus of a logical definition */
+				stanza.is_a.add(parts[0]);
+			} else if (parts.length == 2) {
+				stanza.links.add(parts);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void readTypedefTag(Typedef typedef, String tag, String value) {
+		switch (tag) {
+		case "id":
+			typedef.id = value;
+			break;
+		case "xref":
+			typedef.xrefs.add(reference(value));
+			break;
+		case "is_a":
+			typedef.is_a.add(reference(value));
+			break;
+		case "is_transitive":
+			typedef.transitive = value.startsWith("true");
+			break;
+		case "transitive_over":
+			typedef.transitive_over.add(reference(value));
+			break;
+		case "holds_over_chain":
+		case "equivalent_to_chain":
+			String [] chain = reference(value).split("\\s+");
+			if (chain.length == 2) {
+				typedef.chains.add(chain);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/*
+	 * Drop any trailing qualifiers {...} and comment ! ...
+	 */
+	private static String reference(String value) {
+		int end = value.length();
+		int comment = value.indexOf(" !");
+		if (comment >= 0) {
+			end = comment;
+		}
+		int qualifiers = value.indexOf(" {");
+		if (qualifiers >= 0 && qualifiers < end) {
+			end = qualifiers;
+		}
+		return value.substring(0, end).trim();
+	}
+
+	String getDataVersion() {
+		return data_version;
+	}
+
+	/*
+	 * The version IRI that the OBO to OWL translation would give the ontology
+	 */
+	String getVersion() {
+		if (data_version == null || ontology_name == null) {
+			return null;
+		}
+		return "http://purl.obolibrary.org/obo/" + ontology_name + "/" + data_version + "/" + ontology_name + ".owl";
+	}
+
+	OntologySnapshot toSnapshot() {
+		/* terms that are only ever linked to are classes too, as they are in the OWL translation */
+		List<String> id_list = new ArrayList<>(stanzas.keySet());
+		Map<String, Boolean> seen = new HashMap<>();
+		for (String id : id_list) {
+			seen.put(id, Boolean.TRUE);
+		}
+		for (Stanza stanza : new ArrayList<>(stanzas.values())) {
+			for (String target : stanza.is_a) {
+				if (seen.put(target, Boolean.TRUE) == null) {
+					id_list.add(target);
+				}
+			}
+			for (String [] link : stanza.links) {
+				if (seen.put(link[1], Boolean.TRUE) == null) {
+					id_list.add(link[1]);
+				}
+			}
+		}
+		Collections.sort(id_list);
+		String [] ids = id_list.toArray(new String[id_list.size()]);
+		int count = ids.length;
+
+		Relations relations = new Relations();
+		int [][] is_a = new int[count][];
+		int [][] link_relations = new int[count][];
+		int [][] link_targets = new int[count][];
+		String [] labels = new String[count];
+		byte [] flags = new byte[count];
+		List<String> subset_names = new ArrayList<>();
+		int [] subset_offsets = new int[count + 1];
+		List<Integer> subsets = new ArrayList<>();
+		int [] replaced_offsets = new int[count + 1];
+		List<String> replaced_by = new ArrayList<>();
+		Map<String, Integer> alt_map = new HashMap<>();
+		for (int term = 0; term < count; term++) {
+			Stanza stanza = stanzas.get(ids[term]);
+			if (stanza == null) {
+				stanza = new Stanza();
+			}
+			labels[term] = stanza.name != null ? stanza.name : ids[term];
+			flags[term] = stanza.obsolete ? (byte) 1 : 0;
+			for (String subset : stanza.subsets) {
+				if (!subset_names.contains(subset)) {
+					subset_names.add(subset);
+				}
+				subsets.add(subset_names.indexOf(subset));
+			}
+			subset_offsets[term + 1] = subsets.size();
+			replaced_by.addAll(stanza.replaced_by);
+			replaced_offsets[term + 1] = replaced_by.size();
+			for (String alt : stanza.alt_ids) {
+				alt_map.put(alt, term);
+			}
+			is_a[term] = new int[stanza.is_a.size()];
+			for (int i = 0; i < is_a[term].length; i++) {
+				is_a[term][i] = Arrays.binarySearch(ids, stanza.is_a.get(i));
+			}
+			link_relations[term] = new int[stanza.links.size()];
+			link_targets[term] = new int[stanza.links.size()];
+			for (int i = 0; i < link_targets[term].length; i++) {
+				link_relations[term][i] = relations.indexOf(stanza.links.get(i)[0]);
+				link_targets[term][i] = Arrays.binarySearch(ids, stanza.links.get(i)[1]);
+			}
+		}
+		relations.resolve();
+
+		/* which relations each of the closures collects, besides is_a */
+		boolean [][] collected = new boolean[OntologySnapshot.RELATION_SETS][relations.size()];
+		for (String name : PART_OF) {
+			collected[OntologySnapshot.IS_A_PART_OF][relations.find(name)] = true;
+			collected[OntologySnapshot.IS_A_PART_OF_REGULATES][relations.find(name)] = true;
+		}
+		for (String name : REGULATES) {
+			collected[OntologySnapshot.IS_A_PART_OF_REGULATES][relations.find(name)] = true;
+		}
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			collected[r][IS_A] = true;
+		}
+		relations.prune(collected[OntologySnapshot.IS_A_PART_OF_REGULATES]);
+
+		int [][] closure_offsets = new int[OntologySnapshot.RELATION_SETS][count + 1];
+		IntList [] values = new IntList[OntologySnapshot.RELATION_SETS];
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			values[r] = new IntList(1 << 16);
+		}
+		Saturator saturator = new Saturator(count, relations, is_a, link_relations, link_targets);
+		for (int term = 0; term < count; term++) {
+			saturator.saturate(term);
+			for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+				saturator.collect(collected[r], values[r]);
+				closure_offsets[r][term + 1] = values[r].size();
+			}
+		}
+		IntBuffer [] closures = new IntBuffer[OntologySnapshot.RELATION_SETS];
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			closures[r] = IntBuffer.wrap(values[r].toArray());
+		}
+
+		/* 
+		 * the aspect of a term is that of the root it is_a, 
+		 * a term below more than one root gets the last one, as it does from DefaultAspectProvider 
+		 */
+		byte [] aspects = new byte[count];
+		int overlaps = 0;
+		for (String [] root : ROOTS) {
+			int root_term = Arrays.binarySearch(ids, root[0]);
+			for (int term = 0; term < count && root_term >= 0; term++) {
+				if (isAncestor(closures[OntologySnapshot.IS_A], closure_offsets[OntologySnapshot.IS_A], term, root_term)) {
+					if (aspects[term] != 0) {
+						overlaps++;
+					}
+					aspects[term] = (byte) root[1].charAt(0);
+				}
+			}
+		}
+		if (overlaps > 0) {
+			log.warn(overlaps + " terms are below more than one of the GO roots");
+		}
+
+		List<String> alt_list = new ArrayList<>(alt_map.keySet());
+		Collections.sort(alt_list);
+		String [] alt_ids = alt_list.toArray(new String[alt_list.size()]);
+		int [] alt_targets = new int[alt_ids.length];
+		for (int i = 0; i < alt_ids.length; i++) {
+			alt_targets[i] = alt_map.get(alt_ids[i]);
+		}
+		int [] subset_values = new int[subsets.size()];
+		for (int i = 0; i < subset_values.length; i++) {
+			subset_values[i] = subsets.get(i);
+		}
+		log.info("Read " + count + " classes from go.obo " + data_version);
+		return new OntologySnapshot(getVersion(), data_version, ids, labels, aspects, flags,
+				subset_names.toArray(new String[subset_names.size()]), subset_offsets, subset_values,
+				replaced_offsets, replaced_by.toArray(new String[replaced_by.size()]),
+				alt_ids, alt_targets, closure_offsets, closures);
+	}
+
+	/* a few terms that cover what the loader has to get right, see checkFixture */
+	static final String FIXTURE = "go-loader-fixture.obo";
+
+	/*
+	 * Check a snapshot of the fixture, from either loader, against what the reasoner is known to entail from it
+	 * @return what doesn't hold, empty if all is well
+	 */
+	static List<String> checkFixture(OntologySnapshot snapshot) {
+		List<String> failures = new ArrayList<>();
+		/* regulates holds over part_of, a plain part_of chain doesn't reach through regulates */
+		expect(snapshot, failures, "GO:9000002", "GO:9000001", OntologySnapshot.IS_A_PART_OF, true);
+		expect(snapshot, failures, "GO:9000002", "GO:9000001", OntologySnapshot.IS_A, false);
+		expect(snapshot, failures, "GO:9000003", "GO:9000002", OntologySnapshot.IS_A_PART_OF_REGULATES, true);
+		expect(snapshot, failures, "GO:9000003", "GO:9000001", OntologySnapshot.IS_A_PART_OF_REGULATES, true);
+		expect(snapshot, failures, "GO:9000003", "GO:9000002", OntologySnapshot.IS_A_PART_OF, false);
+		/* negatively_regulates is_a regulates */
+		expect(snapshot, failures, "GO:9000004", "GO:9000003", OntologySnapshot.IS_A, true);
+		expect(snapshot, failures, "GO:9000004", "GO:9000001", OntologySnapshot.IS_A_PART_OF_REGULATES, true);
+		expect(snapshot, failures, "GO:9000004", "GO:9000002", OntologySnapshot.IS_A_PART_OF, false);
+		expect(snapshot, failures, "GO:9000009", "GO:9000001", OntologySnapshot.IS_A_PART_OF_REGULATES, true);
+		/* has_part isn't followed */
+		expect(snapshot, failures, "GO:9000005", "GO:9000001", OntologySnapshot.IS_A_PART_OF_REGULATES, false);
+		expectEqual(failures, "aspect of GO:9000003", "P", snapshot.getAspect("GO:9000003"));
+		expectEqual(failures, "aspect of GO:9000006", "C", snapshot.getAspect("GO:9000006"));
+		expectEqual(failures, "aspect of GO:9000007", "F", snapshot.getAspect("GO:9000007"));
+		expectEqual(failures, "GO:9000008 obsolete", true, snapshot.isObsolete("GO:9000008"));
+		expectEqual(failures, "GO:9000008 replaced by", Collections.singletonList("GO:9000001"), snapshot.replacedBy("GO:9000008"));
+		expectEqual(failures, "GO:9000099 a term", false, snapshot.isTerm("GO:9000099"));
+		expectEqual(failures, "GO:9000099 replaced by", Collections.singletonList("GO:9000001"), snapshot.replacedBy("GO:9000099"));
+		return failures;
+	}
+
+	private static void expect(OntologySnapshot snapshot, List<String> failures, String term, String ancestor, int relations, boolean expected) {
+		expectEqual(failures, term + " below " + ancestor + " over relation set " + relations, expected, snapshot.moreSpecific(term, ancestor, relations));
+	}
+
+	private static void expectEqual(List<String> failures, String what, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			failures.add(what + ": expected " + expected + " but got " + actual);
+		}
+	}
+
+	private static boolean isAncestor(IntBuffer closure, int [] offsets, int term, int ancestor) {
+		for (int i = offsets[term]; i < offsets[term + 1] && closure.get(i) <= ancestor; i++) {
+			if (closure.get(i) == ancestor) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The relations of the file, numbered, with what their Typedef axioms make of them
+	 */
+	private class Relations {
+		private final Map<String, Integer> numbers = new HashMap<>();
+		private final List<Typedef> defined = new ArrayList<>();
+		/* for each relation, itself and every relation it is_a */
+		private int [][] supers;
+		/* for each pair R, S what R o S gives, including the relations those are a */
+		private int [][][] compose;
+		private boolean [] useful;
+
+		Relations() {
+			/* is_a first, so it is number 0 */
+			defined.add(null);
+			for (Typedef typedef : typedefs) {
+				if (typedef.id != null) {
+					number(typedef.id, typedef);
+					for (String xref : typedef.xrefs) {
+						if (!numbers.containsKey(xref)) {
+							numbers.put(xref, numbers.get(typedef.id));
+						}
+					}
+				}
+			}
+		}
+
+		int size() {
+			return defined.size();
+		}
+
+		/*
+		 * The number of a relation used in a relationship, numbered on the spot if it has no Typedef
+		 */
+		int indexOf(String name) {
+			Integer number = numbers.get(name);
+			return number != null ? number : number(name, null);
+		}
+
+		/*
+		 * The number of a relation, or 0 (is_a, which is always collected) if the file doesn't have it
+		 */
+		int find(String name) {
+			Integer number = numbers.get(name);
+			return number != null ? number : IS_A;
+		}
+
+		private int number(String name, Typedef typedef) {
+			Integer number = numbers.get(name);
+			if (number == null) {
+				number = defined.size();
+				numbers.put(name, number);
+				defined.add(typedef);
+			}
+			return number;
+		}
+
+		/*
+		 * Work out the super relations and compositions once everything has been numbered
+		 */
+		void resolve() {
+			int size = size();
+			/* Typedefs may mention relations that nothing else does */
+			for (int r = 1; r < size; r++) {
+				Typedef typedef = defined.get(r);
+				if (typedef != null) {
+					for (String name : typedef.is_a) {
+						indexOf(name);
+					}
+					for (String name : typedef.transitive_over) {
+						indexOf(name);
+					}
+					for (String [] chain : typedef.chains) {
+						indexOf(chain[0]);
+						indexOf(chain[1]);
+					}
+				}
+				size = size();
+			}
+			boolean [][] is_a = new boolean[size][size];
+			for (int r = 1; r < size; r++) {
+				is_a[r][r] = true;
+				Typedef typedef = defined.get(r);
+				if (typedef != null) {
+					for (String name : typedef.is_a) {
+						is_a[r][indexOf(name)] = true;
+					}
+				}
+			}
+			/* transitive closure, there are only a handful of relations */
+			for (int k = 1; k < size; k++) {
+				for (int i = 1; i < size; i++) {
+					for (int j = 1; j < size && is_a[i][k]; j++) {
+						is_a[i][j] |= is_a[k][j];
+					}
+				}
+			}
+			supers = new int[size][];
+			supers[IS_A] = new int[0];
+			for (int r = 1; r < size; r++) {
+				supers[r] = members(is_a[r]);
+			}
+			boolean [][][] gives = new boolean[size][size][size];
+			for (int t = 1; t < size; t++) {
+				Typedef typedef = defined.get(t);
+				if (typedef == null) {
+					continue;
+				}
+				if (typedef.transitive) {
+					gives[t][t][t] = true;
+				}
+				for (String name : typedef.transitive_over) {
+					gives[t][indexOf(name)][t] = true;
+				}
+				for (String [] chain : typedef.chains) {
+					gives[indexOf(chain[0])][indexOf(chain[1])][t] = true;
+				}
+			}
+			/* a chain that holds for R' and S' holds for every R that is_a R' and S that is_a S' */
+			compose = new int[size][size][];
+			for (int r = 1; r < size; r++) {
+				for (int s = 1; s < size; s++) {
+					boolean [] result = new boolean[size];
+					for (int r_super : supers[r]) {
+						for (int s_super : supers[s]) {
+							for (int t = 1; t < size; t++) {
+								if (gives[r_super][s_super][t]) {
+									for (int t_super : supers[t]) {
+										result[t_super] = true;
+									}
+								}
+							}
+						}
+					}
+					compose[r][s] = members(result);
+				}
+			}
+		}
+
+		/*
+		 * Only keep track of the relations that can lead to one that is collected, 
+		 * the rest (has_part, occurs_in and so on) can't change any closure
+		 */
+		void prune(boolean [] collected) {
+			int size = size();
+			useful = new boolean[size];
+			useful[IS_A] = true;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int r = 1; r < size; r++) {
+					if (useful[r]) {
+						continue;
+					}
+					boolean leads = collected[r];
+					for (int i = 0; i < supers[r].length && !leads; i++) {
+						leads = collected[supers[r][i]] || useful[supers[r][i]];
+					}
+					for (int s = 1; s < size && !leads; s++) {
+						for (int t : compose[r][s]) {
+							leads |= useful[t];
+						}
+					}
+					if (leads) {
+						useful[r] = true;
+						changed = true;
+					}
+				}
+			}
+		}
+
+		private int [] members(boolean [] flags) {
+			IntList list = new IntList(flags.length);
+			for (int i = 0; i < flags.length; i++) {
+				if (flags[i]) {
+					list.add(i);
+				}
+			}
+			return list.toArray();
+		}
+	}
+
+	/*
+	 * Works out everything a term is_a or is related to, as relation and term pairs,
+	 * reusing its work space from one term to the next
+	 */
+	private static class Saturator {
+
+		private final Relations relations;
+		private final int [][] is_a;
+		private final int [][] link_relations;
+		private final int [][] link_targets;
+		/* stamp of the term being saturated, for every relation and term pair found */
+		private final int [][] visited;
+		private final int [] collected_marks;
+		private final IntList queue_relations;
+		private final IntList queue_terms;
+		private int stamp;
+		private int collect_stamp;
+
+		Saturator(int count, Relations relations, int [][] is_a, int [][] link_relations, int [][] link_targets) {
+			this.relations = relations;
+			this.is_a = is_a;
+			this.link_relations = link_relations;
+			this.link_targets = link_targets;
+			visited = new int[relations.size()][];
+			for (int r = 0; r < visited.length; r++) {
+				if (relations.useful[r]) {
+					visited[r] = new int[count];
+				}
+			}
+			collected_marks = new int[count];
+			queue_relations = new IntList(1 << 12);
+			queue_terms = new IntList(1 << 12);
+		}
+
+		void saturate(int term) {
+			stamp++;
+			queue_relations.clear();
+			queue_terms.clear();
+			add(IS_A, term);
+			for (int head = 0; head < queue_terms.size(); head++) {
+				int relation = queue_relations.get(head);
+				int node = queue_terms.get(head);
+				for (int parent : is_a[node]) {
+					add(relation, parent);
+				}
+				for (int i = 0; i < link_targets[node].length; i++) {
+					int link = link_relations[node][i];
+					int target = link_targets[node][i];
+					if (relation == IS_A) {
+						for (int super_relation : relations.supers[link]) {
+							add(super_relation, target);
+						}
+					} else {
+						for (int composed : relations.compose[relation][link]) {
+							add(composed, target);
+						}
+					}
+				}
+			}
+		}
+
+		/*
+		 * Append the terms found through is_a or any of the collected relations, in order
+		 */
+		void collect(boolean [] collected, IntList values) {
+			int start = values.size();
+			/* the same term may have been reached by several of the relations */
+			collect_stamp++;
+			for (int i = 0; i < queue_terms.size(); i++) {
+				int node = queue_terms.get(i);
+				if (collected[queue_relations.get(i)] && collected_marks[node] != collect_stamp) {
+					collected_marks[node] = collect_stamp;
+					values.add(node);
+				}
+			}
+			values.sort(start);
+		}
+
+		private void add(int relation, int node) {
+			if (node < 0 || !relations.useful[relation] || visited[relation][node] == stamp) {
+				return;
+			}
+			visited[relation][node] = stamp;
+			queue_relations.add(relation);
+			queue_terms.add(node);
+		}
+	}
+
+	/*
+	 * A growing int array, so the closures of all of GO don't end up as Integers
+	 */
+	private static class IntList {
+		private int [] values;
+		private int size;
+
+		IntList(int capacity) {
+			values = new int[Math.max(1, capacity)];
+		}
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		void sort(int from) {
+			Arrays.sort(values, from, size);
+		}
+
+		int [] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,575 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Everything touchup asks of GO, worked out ahead of time and kept in flat tables:
+ * the term ids and labels, obsoletion, replaced_by and alt_ids, subsets, aspects
+ * and the ancestor closures over is_a, is_a/part_of and is_a/part_of/regulates.
+ *
+ * A snapshot is compiled once for a GO release (see OWLutil.compileSnapshot) and written to a file.
+ * Loading it memory-maps that file, the closures are read straight out of the mapping,
+ * so there is no parsing of go.obo and no reasoner to wait for.
+ *
+ * Terms are numbered by their position in the sorted id table.
+ */
+public class OntologySnapshot {
+
+	/*
+	 * The relation sets that closures are kept for
+	 */
+	public static final int IS_A = 0;
+	public static final int IS_A_PART_OF = 1;
+	public static final int IS_A_PART_OF_REGULATES = 2;
+	static final int RELATION_SETS = 3;
+
+	private static final int MAGIC = 0x474f534e; // GOSN
+	private static final int FORMAT = 1;
+
+	private static final byte OBSOLETE = 1;
+
+	private static final String [] EXCLUDED_SUBSETS = {"gocheck_do_not_manually_annotate", "gocheck_do_not_annotate"};
+
+	private static final Logger log = Logger.getLogger(OntologySnapshot.class);
+
+	private final String go_version;
+	private final String data_version;
+	private final String [] ids;
+	private final String [] labels;
+	private final byte [] aspects;
+	private final byte [] flags;
+	private final String [] subset_names;
+	private final int [] subset_offsets;
+	private final int [] subsets;
+	private final int [] replaced_offsets;
+	private final String [] replaced_by;
+	private final String [] alt_ids;
+	private final int [] alt_targets;
+	private final int [][] closure_offsets;
+	private final IntBuffer [] closures;
+	private final boolean [] excluded;
+	private final IdTable id_table;
+	private final IdTable alt_table;
+	/* the only thing that changes once a snapshot is built, and that only counts */
+	private final LookupStats stats;
+
+	/*
+	 * Open addressing from an id string to its position in a (never changing) array of ids.
+	 * Strings keep their own hash codes, so a lookup is usually one probe and one equals.
+	 */
+	private static final class IdTable {
+
+		private final String [] keys;
+		private final int [] slots; // position + 1, 0 for an empty slot
+		private final int mask;
+
+		IdTable(String [] keys) {
+			this.keys = keys;
+			int capacity = Integer.highestOneBit(Math.max(2, keys.length) * 2) * 2;
+			slots = new int[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < keys.length; i++) {
+				int slot = spread(keys[i].hashCode()) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = i + 1;
+			}
+		}
+
+		int get(String key) {
+			if (key == null) {
+				return -1;
+			}
+			int slot = spread(key.hashCode()) & mask;
+			while (slots[slot] != 0) {
+				if (keys[slots[slot] - 1].equals(key)) {
+					return slots[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private static int spread(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	private static final String [] ASPECT_NAMES = new String[128];
+	static {
+		for (String aspect : new String [] {"P", "F", "C"}) {
+			ASPECT_NAMES[aspect.charAt(0)] = aspect;
+		}
+	}
+
+	OntologySnapshot(String go_version,
+			String data_version,
+			String [] ids,
+			String [] labels,
+			byte [] aspects,
+			byte [] flags,
+			String [] subset_names,
+			int [] subset_offsets,
+			int [] subsets,
+			int [] replaced_offsets,
+			String [] replaced_by,
+			String [] alt_ids,
+			int [] alt_targets,
+			int [][] closure_offsets,
+			IntBuffer [] closures) {
+		this.go_version = go_version;
+		this.data_version = data_version;
+		this.ids = ids;
+		this.labels = labels;
+		this.aspects = aspects;
+		this.flags = flags;
+		this.subset_names = subset_names;
+		this.subset_offsets = subset_offsets;
+		this.subsets = subsets;
+		this.replaced_offsets = replaced_offsets;
+		this.replaced_by = replaced_by;
+		this.alt_ids = alt_ids;
+		this.alt_targets = alt_targets;
+		this.closure_offsets = closure_offsets;
+		this.closures = closures;
+		boolean [] excluded_subset = new boolean[subset_names.length];
+		for (int i = 0; i < subset_names.length; i++) {
+			excluded_subset[i] = Arrays.asList(EXCLUDED_SUBSETS).contains(subset_names[i]);
+		}
+		excluded = new boolean[ids.length];
+		for (int term = 0; term < ids.length; term++) {
+			for (int i = subset_offsets[term]; i < subset_offsets[term + 1] && !excluded[term]; i++) {
+				excluded[term] = excluded_subset[subsets[i]];
+			}
+		}
+		id_table = new IdTable(ids);
+		alt_table = new IdTable(alt_ids);
+		stats = new LookupStats();
+	}
+
+	/*
+	 * The version IRI of the release, as OWLutil.getVersion() gives it
+	 */
+	public String getVersion() {
+		return go_version;
+	}
+
+	/*
+	 * The data-version header of the go.obo the snapshot was compiled from
+	 */
+	public String getDataVersion() {
+		return data_version;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/*
+	 * The number of the term, or -1 if it isn't a (primary) id in this release
+	 */
+	public int indexOf(String go_id) {
+		int term = id_table.get(go_id);
+		stats.count(term >= 0 ? LookupStats.TERM_FOUND : LookupStats.TERM_UNKNOWN);
+		return term;
+	}
+
+	public String getId(int term) {
+		return ids[term];
+	}
+
+	public boolean isTerm(String go_id) {
+		return indexOf(go_id) >= 0;
+	}
+
+	public boolean isObsolete(String go_id) {
+		return isObsolete(indexOf(go_id));
+	}
+
+	/*
+	 * Anything that isn't a term of this release counts as obsolete
+	 */
+	public boolean isObsolete(int term) {
+		return term < 0 || (flags[term] & OBSOLETE) != 0;
+	}
+
+	/*
+	 * The replacements for an obsolete term, or the primary id if go_id is an alt_id
+	 */
+	public List<String> replacedBy(String go_id) {
+		List<String> go_ids = new ArrayList<>();
+		int term = indexOf(go_id);
+		if (term >= 0) {
+			for (int i = replaced_offsets[term]; i < replaced_offsets[term + 1]; i++) {
+				go_ids.add(replaced_by[i]);
+			}
+			if (go_ids.size() > 1) {
+				log.info("More than one replacement term for " + go_id);
+			} else if (go_ids.isEmpty()) {
+				log.info("No replacement for obsolete term " + go_id);
+			}
+		} else {
+			int alt = alt_table.get(go_id);
+			if (alt >= 0) {
+				go_ids.add(ids[alt_targets[alt]]);
+			}
+		}
+		return go_ids;
+	}
+
+	public boolean isExcluded(String go_id) {
+		return isExcluded(indexOf(go_id));
+	}
+
+	public boolean isExcluded(int term) {
+		return term >= 0 && excluded[term];
+	}
+
+	public List<String> getSubsets(String go_id) {
+		List<String> names = new ArrayList<>();
+		int term = indexOf(go_id);
+		if (term >= 0) {
+			for (int i = subset_offsets[term]; i < subset_offsets[term + 1]; i++) {
+				names.add(subset_names[subsets[i]]);
+			}
+		}
+		return names;
+	}
+
+	public String getTermLabel(String go_id) {
+		int term = indexOf(go_id);
+		return term >= 0 ? labels[term] : go_id + " no label";
+	}
+
+	public String getAspect(String go_id) {
+		return getAspect(indexOf(go_id));
+	}
+
+	public String getAspect(int term) {
+		return term >= 0 ? ASPECT_NAMES[aspects[term]] : null;
+	}
+
+	/*
+	 * True if check_term is against_term or lies below it over the given relations
+	 */
+	public boolean moreSpecific(String check_term, String against_term, int relations) {
+		int check = indexOf(check_term);
+		int against = indexOf(against_term);
+		if (check < 0 || against < 0) {
+			return false;
+		}
+		stats.count(LookupStats.CLOSURE_SNAPSHOT);
+		return isAncestor(check, against, relations);
+	}
+
+	LookupStats getStats() {
+		return stats;
+	}
+
+	boolean isAncestor(int term, int ancestor, int relations) {
+		IntBuffer closure = closures[relations];
+		int low = closure_offsets[relations][term];
+		int high = closure_offsets[relations][term + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = closure.get(mid);
+			if (value < ancestor) {
+				low = mid + 1;
+			} else if (value > ancestor) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The closure of a term over the given relations is the sorted run from getClosureStart to getClosureEnd
+	 */
+	IntBuffer getClosure(int relations) {
+		return closures[relations];
+	}
+
+	int getClosureStart(int term, int relations) {
+		return closure_offsets[relations][term];
+	}
+
+	int getClosureEnd(int term, int relations) {
+		return closure_offsets[relations][term + 1];
+	}
+
+	/*
+	 * A topological rank over is_a/part_of: a term is always ranked above every one of its ancestors.
+	 * The closure of an ancestor is a strict subset of the term's own closure,
+	 * so the size of the closure is such a rank and it is already in the tables.
+	 */
+	int getRank(int term) {
+		return closure_offsets[IS_A_PART_OF][term + 1] - closure_offsets[IS_A_PART_OF][term];
+	}
+
+	/*
+	 * The ancestors (over all the relations, including the term itself) that share the term's aspect
+	 * and may be annotated to, more specific ones ahead of those they lie below.
+	 * Terms of the same rank are in id order so the list is always the same.
+	 */
+	public List<String> getAncestors(String go_id) {
+		List<String> ancestors = new ArrayList<>();
+		int term = indexOf(go_id);
+		if (term < 0 || aspects[term] == 0) {
+			ancestors.add(go_id);
+			log.info(go_id + " does not have an aspect defined");
+			return ancestors;
+		}
+		IntBuffer closure = closures[IS_A_PART_OF_REGULATES];
+		int start = closure_offsets[IS_A_PART_OF_REGULATES][term];
+		int end = closure_offsets[IS_A_PART_OF_REGULATES][term + 1];
+		byte term_aspect = aspects[term];
+		/* highest rank first, then lowest id, packed so a plain sort of longs does it */
+		long [] keys = new long[end - start];
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			int ancestor = closure.get(i);
+			if (aspects[ancestor] == term_aspect && !excluded[ancestor]) {
+				keys[count++] = ((long) (Integer.MAX_VALUE - getRank(ancestor)) << 32) | ancestor;
+			}
+		}
+		Arrays.sort(keys, 0, count);
+		for (int i = 0; i < count; i++) {
+			ancestors.add(ids[(int) keys[i]]);
+		}
+		return ancestors;
+	}
+
+	/*
+	 * Where another snapshot of the same release answers differently, at most limit of them
+	 */
+	public List<String> compare(OntologySnapshot other, int limit) {
+		List<String> differences = new ArrayList<>();
+		if (go_version == null ? other.go_version != null : !go_version.equals(other.go_version)) {
+			differences.add("version " + go_version + " vs " + other.go_version);
+		}
+		for (int term = 0; term < ids.length && differences.size() < limit; term++) {
+			String id = ids[term];
+			int other_term = other.indexOf(id);
+			if (other_term < 0) {
+				differences.add(id + " is missing");
+				continue;
+			}
+			if (!labels[term].equals(other.labels[other_term])) {
+				differences.add(id + " label " + labels[term] + " vs " + other.labels[other_term]);
+			}
+			if (aspects[term] != other.aspects[other_term] || flags[term] != other.flags[other_term]) {
+				differences.add(id + " aspect/obsolete " + getAspect(term) + "/" + isObsolete(term) + " vs " + other.getAspect(other_term) + "/" + other.isObsolete(other_term));
+			}
+			if (!new HashSet<>(getSubsets(id)).equals(new HashSet<>(other.getSubsets(id)))) {
+				differences.add(id + " subsets " + getSubsets(id) + " vs " + other.getSubsets(id));
+			}
+			if (!replacements(term).equals(other.replacements(other_term))) {
+				differences.add(id + " replaced_by " + replacements(term) + " vs " + other.replacements(other_term));
+			}
+			for (int r = 0; r < RELATION_SETS; r++) {
+				Set<String> closure = closureIds(term, r);
+				Set<String> other_closure = other.closureIds(other_term, r);
+				if (!closure.equals(other_closure)) {
+					differences.add(id + " closure " + r + " " + Sets.symmetricDifference(closure, other_closure));
+				}
+			}
+		}
+		if (other.size() != size() && differences.size() < limit) {
+			differences.add(size() + " classes vs " + other.size());
+		}
+		for (int i = 0; i < alt_ids.length && differences.size() < limit; i++) {
+			int alt = other.alt_table.get(alt_ids[i]);
+			if (alt < 0 || !ids[alt_targets[i]].equals(other.ids[other.alt_targets[alt]])) {
+				differences.add("alt_id " + alt_ids[i] + " of " + ids[alt_targets[i]]);
+			}
+		}
+		return differences;
+	}
+
+	private List<String> replacements(int term) {
+		return Arrays.asList(replaced_by).subList(replaced_offsets[term], replaced_offsets[term + 1]);
+	}
+
+	private Set<String> closureIds(int term, int relations) {
+		Set<String> closure = new HashSet<>();
+		for (int i = closure_offsets[relations][term]; i < closure_offsets[relations][term + 1]; i++) {
+			closure.add(ids[closures[relations].get(i)]);
+		}
+		return closure;
+	}
+
+	public void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			writeString(out, go_version);
+			writeString(out, data_version);
+			out.writeInt(ids.length);
+			for (String id : ids) {
+				writeString(out, id);
+			}
+			for (String label : labels) {
+				writeString(out, label);
+			}
+			out.write(aspects);
+			out.write(flags);
+			out.writeInt(subset_names.length);
+			for (String name : subset_names) {
+				writeString(out, name);
+			}
+			writeInts(out, subset_offsets);
+			writeInts(out, subsets);
+			writeInts(out, replaced_offsets);
+			for (String id : replaced_by) {
+				writeString(out, id);
+			}
+			out.writeInt(alt_ids.length);
+			for (int i = 0; i < alt_ids.length; i++) {
+				writeString(out, alt_ids[i]);
+				out.writeInt(alt_targets[i]);
+			}
+			for (int r = 0; r < RELATION_SETS; r++) {
+				writeInts(out, closure_offsets[r]);
+				IntBuffer closure = closures[r];
+				for (int i = 0; i < closure.limit(); i++) {
+					out.writeInt(closure.get(i));
+				}
+			}
+		}
+		FileUtil.replace(tmp, file);
+	}
+
+	public static OntologySnapshot load(File file) throws IOException {
+		ByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			/* the mapping stays valid after the channel is closed */
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+			throw new IOException(file + " is not a GO snapshot this version of touchup can read");
+		}
+		String go_version = readString(buffer);
+		String data_version = readString(buffer);
+		int count = buffer.getInt();
+		String [] ids = readStrings(buffer, count);
+		String [] labels = readStrings(buffer, count);
+		byte [] aspects = new byte[count];
+		buffer.get(aspects);
+		byte [] flags = new byte[count];
+		buffer.get(flags);
+		String [] subset_names = readStrings(buffer, buffer.getInt());
+		int [] subset_offsets = readInts(buffer, count + 1);
+		int [] subsets = readInts(buffer, subset_offsets[count]);
+		int [] replaced_offsets = readInts(buffer, count + 1);
+		String [] replaced_by = readStrings(buffer, replaced_offsets[count]);
+		int alt_count = buffer.getInt();
+		String [] alt_ids = new String[alt_count];
+		int [] alt_targets = new int[alt_count];
+		for (int i = 0; i < alt_count; i++) {
+			alt_ids[i] = readString(buffer);
+			alt_targets[i] = buffer.getInt();
+		}
+		int [][] closure_offsets = new int[RELATION_SETS][];
+		IntBuffer [] closures = new IntBuffer[RELATION_SETS];
+		for (int r = 0; r < RELATION_SETS; r++) {
+			closure_offsets[r] = readInts(buffer, count + 1);
+			closures[r] = mapInts(buffer, closure_offsets[r][count]);
+		}
+		return new OntologySnapshot(go_version, data_version, ids, labels, aspects, flags,
+				subset_names, subset_offsets, subsets, replaced_offsets, replaced_by,
+				alt_ids, alt_targets, closure_offsets, closures);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int [] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte [] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String [] readStrings(ByteBuffer buffer, int count) {
+		String [] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readString(buffer);
+		}
+		return values;
+	}
+
+	private static int [] readInts(ByteBuffer buffer, int count) {
+		int [] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	/*
+	 * A view of the next count ints that reads straight from the mapped file
+	 */
+	private static IntBuffer mapInts(ByteBuffer buffer, int count) {
+		ByteBuffer view = buffer.slice();
+		view.limit(count * 4);
+		buffer.position(buffer.position() + count * 4);
+		return view.asIntBuffer();
+	}
+}
@@ -34,6 +34,7 @@ import java.util.Random;
 import org.apache.log4j.Logger;
 import org.bbop.phylo.model.Bioentity;
 import org.bbop.phylo.model.Tree;
+import org.bbop.phylo.tracking.FamilyMetrics;
 
 /**
  * @author suzi
@@ -48,34 +49,45 @@ public class TaxonChecker {
 
 	private static final String TAXON_SERVER_TEST = "&id=GO:0007400&taxid=NCBITaxon:3702";
 
-	private static boolean io_error = false;
+	/*
+	 * Kept per thread so that families being touched up in parallel
+	 * don't trip over each other's server status and messages
+	 */
+	private static final ThreadLocal<Boolean> io_error = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
 
 	private static final Logger log = Logger.getLogger(TaxonChecker.class);
 
 	private static final int MAX_TAXA_TO_CHECK = 60;
 
-	private static String error_message;
+	private static final ThreadLocal<String> error_message = new ThreadLocal<>();
 
 	public static boolean checkTaxons(Tree tree, Bioentity node, String go_id, boolean ancestral) {
+		long start = System.nanoTime();
 		int attempts = 0;
 		boolean valid_taxon = false;
-		io_error = true;
-		while (io_error && attempts++ < 3) {
+		io_error.set(true);
+		while (io_error.get() && attempts++ < 3) {
 			valid_taxon = queryTaxons(tree, node, go_id, ancestral);
 		}
-		if (io_error) {
+		if (io_error.get()) {
 			log.info("Taxon server is down");
 		}
+		FamilyMetrics.inst().addTime(FamilyMetrics.TAXON_CHECK, start);
 		return valid_taxon;
 	}
 
 	private static boolean queryTaxons(Tree tree, Bioentity node, String go_id, boolean ancestral) {
 		List<String> taxa_to_check = getTaxIDs(tree, node, ancestral);
 		boolean descendents_okay = true;
-		error_message = "";
+		error_message.set("");
 		int checked_off = 0;
 		String taxa_reply = "";
-		io_error = false;
+		io_error.set(false);
 		while (descendents_okay && checked_off < taxa_to_check.size()) {
 			StringBuffer taxon_query = new StringBuffer(TAXON_SERVER_URL + "&id=" + go_id );
 			int max = Math.min(MAX_TAXA_TO_CHECK + checked_off, taxa_to_check.size());
@@ -84,10 +96,10 @@ public class TaxonChecker {
 				taxon_query.append("&taxid=NCBITaxon:" + taxon);
 			}
 			taxa_reply = askTaxonServer(taxon_query);
-			descendents_okay &= !io_error && !(taxa_reply.contains("false"));
+			descendents_okay &= !io_error.get() && !(taxa_reply.contains("false"));
 		}
 		if (!descendents_okay) {
-			if (!io_error) {
+			if (!io_error.get()) {
 				formatErrorMessage(go_id, taxa_reply);
 			} else {
 				randomWait(5000, 10000);
@@ -112,10 +124,10 @@ public class TaxonChecker {
 			String taxon = parseTaxonID(node);
 			if (taxon != null && !taxon.equals("1")) {
 				String taxa_reply = "";
-				io_error = false;
+				io_error.set(false);
 				StringBuffer taxon_query = new StringBuffer(TAXON_SERVER_URL + "&id=" + go_id + "&taxid=NCBITaxon:" + taxon);
 				taxa_reply = askTaxonServer(taxon_query);
-				if (!io_error && (taxa_reply.contains("false")) && !invalid_taxa.contains(taxon)) {
+				if (!io_error.get() && (taxa_reply.contains("false")) && !invalid_taxa.contains(taxon)) {
 					invalid_taxa.add(taxon);
 				}
 				nodes_to_validate.remove(node);
@@ -142,18 +154,19 @@ public class TaxonChecker {
 
 	private static void formatErrorMessage(String go_id, String taxon_reply) {
 		String [] results = taxon_reply.split("\\s+");
-		error_message = "illegal taxa for " + go_id + " - ";
+		String message = "illegal taxa for " + go_id + " - ";
 		String prefix = "";
 		for (int i = 0; i < results.length; i += 3) {
 			if (results[i+2].contains("false")) {
-				error_message += prefix + results[i+1].trim();
+				message += prefix + results[i+1].trim();
 				prefix = ", ";
 			}
 		}
+		error_message.set(message);
 	}
 
 	public static String getTaxonError() {
-		return error_message;
+		return error_message.get();
 	}
 
 	private static String askTaxonServer(StringBuffer taxon_query) {
@@ -166,6 +179,7 @@ public class TaxonChecker {
 			return taxon_reply.toString();
 		}
 		BufferedReader in;
+		long start = System.nanoTime();
 		try {
 			URLConnection conn = servlet.openConnection();
 			conn.setConnectTimeout(1000); // 1 second timeout
@@ -176,21 +190,24 @@ public class TaxonChecker {
 			}
 			in.close();
 		} catch (IOException e1) {
-			if (!io_error) {
+			if (!io_error.get()) {
 				log.error("Attempted to open URL: " + e1.getLocalizedMessage() + " " + taxon_query);
-				io_error = true;
+				io_error.set(true);
 			}
 		}
+		FamilyMetrics.inst().addRequest(start);
 		return taxon_reply.toString();
 	}
 
 	public static boolean isLive() {
-		if (!io_error) {
+		if (!io_error.get()) {
 			// check it
+			long start = System.nanoTime();
 			StringBuffer test_query = new StringBuffer(TAXON_SERVER_URL + TAXON_SERVER_TEST);
 			askTaxonServer(test_query);
+			FamilyMetrics.inst().addTime(FamilyMetrics.TAXON_CHECK, start);
 		}
-		return !io_error;
+		return !io_error.get();
 	}
 
 	private static List<String> getTaxIDs(Tree tree, Bioentity node, boolean ancestral) {
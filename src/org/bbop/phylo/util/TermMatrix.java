@@ -0,0 +1,111 @@
+/* 
+ * 
+ * Copyright (c) 2010, Regents of the University of California 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Neither the name of the Lawrence Berkeley National Lab nor the names of its contributors may be used to endorse 
+ * or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, 
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, 
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+
+package org.bbop.phylo.util;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The is_a, is_a/part_of and is_a/part_of/regulates subsumption between every pair
+ * of the few hundred terms that one family involves, worked out once as bit matrices.
+ * During propagation the same "is A more specific than B" questions come up thousands of times,
+ * each of them is then a lookup of the two terms and a single bit.
+ *
+ * A question about a term that wasn't known when the matrix was built is passed on to the ontology.
+ */
+public class TermMatrix {
+
+	private final OntologySnapshot ontology;
+	private final int [] terms;
+	private final int words_per_row;
+	private final long [][] matrices;
+
+	TermMatrix(OntologySnapshot ontology, Collection<Integer> term_handles) {
+		this.ontology = ontology;
+		int [] handles = new int[term_handles.size()];
+		int count = 0;
+		for (Integer handle : term_handles) {
+			if (handle != null && handle >= 0) {
+				handles[count++] = handle;
+			}
+		}
+		Arrays.sort(handles, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || handles[distinct - 1] != handles[i]) {
+				handles[distinct++] = handles[i];
+			}
+		}
+		terms = Arrays.copyOf(handles, distinct);
+		words_per_row = (distinct + 63) >>> 6;
+		matrices = new long[OntologySnapshot.RELATION_SETS][];
+		for (int r = 0; r < OntologySnapshot.RELATION_SETS; r++) {
+			matrices[r] = build(r);
+		}
+	}
+
+	/*
+	 * Both the closure and the family's terms are sorted, so one walk along the two
+	 * picks out the ancestors that belong to the family
+	 */
+	private long [] build(int relations) {
+		long [] matrix = new long[terms.length * words_per_row];
+		IntBuffer closure = ontology.getClosure(relations);
+		for (int row = 0; row < terms.length; row++) {
+			int position = ontology.getClosureStart(terms[row], relations);
+			int end = ontology.getClosureEnd(terms[row], relations);
+			int column = 0;
+			while (position < end && column < terms.length) {
+				int ancestor = closure.get(position);
+				if (ancestor < terms[column]) {
+					position++;
+				} else if (ancestor > terms[column]) {
+					column++;
+				} else {
+					matrix[row * words_per_row + (column >>> 6)] |= 1L << (column & 63);
+					position++;
+					column++;
+				}
+			}
+		}
+		return matrix;
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	/*
+	 * True if check_term is against_term or lies below it over the given relations (see OntologySnapshot)
+	 */
+	public boolean moreSpecific(int check_term, int against_term, int relations) {
+		if (check_term < 0 || against_term < 0) {
+			return false;
+		}
+		int row = Arrays.binarySearch(terms, check_term);
+		int column = Arrays.binarySearch(terms, against_term);
+		if (row < 0 || column < 0) {
+			return ontology.isAncestor(check_term, against_term, relations);
+		}
+		return (matrices[relations][row * words_per_row + (column >>> 6)] & (1L << (column & 63))) != 0;
+	}
+}
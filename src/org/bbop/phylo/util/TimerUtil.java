@@ -5,7 +5,7 @@ import java.util.concurrent.TimeUnit;
 public class TimerUtil {
 	
 	private static final org.apache.log4j.Logger log = org.apache.log4j.Logger.getLogger(LoginUtil.class);
-	private static long startTime;
+	private final long startTime;
 	
 	public TimerUtil() {		
 		startTime = System.nanoTime();